@@ -1,4 +1,25 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 class Pair<K, V> {
     private final K key;
@@ -31,13 +52,32 @@ class PlayingPiece {
     }
 }
 
+// Picks the next move for a player; returns the cell as row * size + col
+interface MoveStrategy {
+    int chooseMove(Board board, PieceType pieceType);
+}
+
+class RandomMoveStrategy implements MoveStrategy {
+    @Override
+    public int chooseMove(Board board, PieceType pieceType) {
+        return board.randomFreeCell(ThreadLocalRandom.current());
+    }
+}
+
 class Player {
     public String name;
     public PlayingPiece playingPiece;
+    // null for a human player reading moves from the console
+    public MoveStrategy moveStrategy;
 
     public Player(String name, PlayingPiece playingPiece) {
+        this(name, playingPiece, null);
+    }
+
+    public Player(String name, PlayingPiece playingPiece, MoveStrategy moveStrategy) {
         this.name = name;
         this.playingPiece = playingPiece;
+        this.moveStrategy = moveStrategy;
     }
 
     public String getPlayerName() {
@@ -49,30 +89,128 @@ class Player {
     }
 }
 
+// Set of free cells (row * size + col) kept as a swap-remove int[] with a
+// reverse position map, so removal, size and random pick are O(1).
+class FreeCellIndex {
+    private final int[] cells;
+    private final int[] positions;
+    private int count;
+
+    public FreeCellIndex(int capacity) {
+        cells = new int[capacity];
+        positions = new int[capacity];
+        for(int i = 0; i < capacity; i++) {
+            cells[i] = i;
+            positions[i] = i;
+        }
+        count = capacity;
+    }
+
+    public boolean remove(int cell) {
+        int pos = positions[cell];
+        if(pos >= count) return false;
+        int last = cells[--count];
+        cells[pos] = last;
+        positions[last] = pos;
+        cells[count] = cell;
+        positions[cell] = count;
+        return true;
+    }
+
+    public boolean contains(int cell) {
+        return positions[cell] < count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int get(int i) {
+        return cells[i];
+    }
+
+    public int random(Random random) {
+        return count == 0 ? -1 : cells[random.nextInt(count)];
+    }
+}
+
+// Deterministic Zobrist keys derived by mixing (cell, piece type) with splitmix64,
+// so boards of any size share the same keys without a per-size random table.
+class Zobrist {
+    private Zobrist() {
+    }
+
+    public static long key(int pieceType, int cell) {
+        return key(pieceType, (long) cell);
+    }
+
+    public static long key(int pieceType, long cell) {
+        long z = ((cell << 1) | pieceType) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
+
 class Board {
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
     public int size;
+    // number of pieces in a row needed to win; defaults to the full board width
+    public int winLength;
+    // null for compact boards, which keep their cells elsewhere
     public PlayingPiece[][] board;
+    protected final FreeCellIndex freeCellIndex;
+    protected long zobristHash;
 
     public Board(int size) {
+        this(size, size);
+    }
+
+    public Board(int size, int winLength) {
+        this(size, winLength, new PlayingPiece[size][size], new FreeCellIndex(size * size));
+    }
+
+    protected Board(int size, int winLength, PlayingPiece[][] board, FreeCellIndex freeCellIndex) {
+        if(winLength < 1 || winLength > size) {
+            throw new IllegalArgumentException("Win length must be between 1 and the board size: " + winLength);
+        }
         this.size = size;
-        board = new PlayingPiece[size][size];
+        this.winLength = winLength;
+        this.board = board;
+        this.freeCellIndex = freeCellIndex;
     }
 
     public boolean addPiece(int row, int col, PlayingPiece playingPiece) {
-        if(row >= size || col >= size) return false;
+        if(row < 0 || col < 0 || row >= size || col >= size) return false;
         if(board[row][col] == null) {
             board[row][col] = playingPiece;
+            freeCellIndex.remove(row * size + col);
+            zobristHash ^= Zobrist.key(playingPiece.pieceType.ordinal(), row * size + col);
             return true;
         } else {
             return false;
         }
     }
 
+    public PieceType getPieceType(int row, int col) {
+        return board[row][col] == null ? null : board[row][col].pieceType;
+    }
+
     public void printBoard() {
-        for(int i = 0; i < size; i++) {
-            for(int j = 0; j < size; j++) {
-                if(board[i][j] != null) {
-                    System.out.print(board[i][j].pieceType.name() + " ");
+        printCells(0, size - 1, 0, size - 1);
+    }
+
+    protected void printCells(int firstRow, int lastRow, int firstCol, int lastCol) {
+        for(int i = firstRow; i <= lastRow; i++) {
+            for(int j = firstCol; j <= lastCol; j++) {
+                PieceType pieceType = getPieceType(i, j);
+                if(pieceType != null) {
+                    System.out.print(pieceType.name() + " ");
                 } else {
                     System.out.print("  ");
                 }
@@ -83,16 +221,278 @@ class Board {
     }
 
     public List<Pair<Integer, Integer>> getFreeCells() {
-        List<Pair<Integer, Integer>> freeCells = new ArrayList<>();
-        for(int i = 0; i < size; i++) {
-            for(int j = 0; j < size; j++) {
-                if(board[i][j] == null) {
-                    Pair<Integer,Integer> rowCol = new Pair<>(i, j);
-                    freeCells.add(rowCol);
+        List<Pair<Integer, Integer>> freeCells = new ArrayList<>(freeCellIndex.size());
+        for(int i = 0; i < freeCellIndex.size(); i++) {
+            int cell = freeCellIndex.get(i);
+            freeCells.add(new Pair<>(cell / size, cell % size));
+        }
+        return freeCells;
+    }
+
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    public boolean isFull() {
+        return freeCellIndex.isEmpty();
+    }
+
+    public int freeCellCount() {
+        return freeCellIndex.size();
+    }
+
+    // Returns a random free cell as row * size + col, or -1 if the board is full
+    public int randomFreeCell(Random random) {
+        return freeCellIndex.random(random);
+    }
+
+    // Walks outward from the last placed cell in the 4 line directions, so the
+    // cost is O(winLength) however large the board is
+    public boolean isWinner(int row, int col, PieceType pieceType) {
+        for(int[] dir: DIRECTIONS) {
+            int run = 1 + countRun(row, col, dir[0], dir[1], pieceType) + countRun(row, col, -dir[0], -dir[1], pieceType);
+            if(run >= winLength) return true;
+        }
+        return false;
+    }
+
+    private int countRun(int row, int col, int dr, int dc, PieceType pieceType) {
+        int run = 0;
+        int r = row + dr;
+        int c = col + dc;
+        while(run < winLength - 1 && isInside(r, c) && getPieceType(r, c) == pieceType) {
+            run++;
+            r += dr;
+            c += dc;
+        }
+        return run;
+    }
+
+    private boolean isInside(int row, int col) {
+        return row >= 0 && col >= 0 && row < size && col < size;
+    }
+}
+
+// Compact board: one bitset per piece type plus running per-line counters, so
+// placing a piece and checking for a full-width win are both O(1) and allocation-free.
+class BitBoard extends Board {
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+
+    private final long[][] cells;
+    private final int[][] rowCount;
+    private final int[][] colCount;
+    private final int[] diagCount;
+    private final int[] antiDiagCount;
+
+    public BitBoard(int size) {
+        this(size, size);
+    }
+
+    public BitBoard(int size, int winLength) {
+        super(size, winLength, null, new FreeCellIndex(size * size));
+        cells = new long[PIECE_TYPES.length][(size * size + 63) >>> 6];
+        rowCount = new int[PIECE_TYPES.length][size];
+        colCount = new int[PIECE_TYPES.length][size];
+        diagCount = new int[PIECE_TYPES.length];
+        antiDiagCount = new int[PIECE_TYPES.length];
+    }
+
+    @Override
+    public boolean addPiece(int row, int col, PlayingPiece playingPiece) {
+        if(row < 0 || col < 0 || row >= size || col >= size) return false;
+        int cell = row * size + col;
+        if(!freeCellIndex.remove(cell)) return false;
+
+        int type = playingPiece.pieceType.ordinal();
+        cells[type][cell >>> 6] |= 1L << cell;
+        zobristHash ^= Zobrist.key(type, cell);
+        rowCount[type][row]++;
+        colCount[type][col]++;
+        if(row == col) diagCount[type]++;
+        if(row + col == size - 1) antiDiagCount[type]++;
+        return true;
+    }
+
+    @Override
+    public PieceType getPieceType(int row, int col) {
+        int cell = row * size + col;
+        for(int type = 0; type < PIECE_TYPES.length; type++) {
+            if((cells[type][cell >>> 6] & (1L << cell)) != 0) {
+                return PIECE_TYPES[type];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isWinner(int row, int col, PieceType pieceType) {
+        if(winLength != size) return super.isWinner(row, col, pieceType);
+        int type = pieceType.ordinal();
+        return rowCount[type][row] == size
+                || colCount[type][col] == size
+                || (row == col && diagCount[type] == size)
+                || (row + col == size - 1 && antiDiagCount[type] == size);
+    }
+}
+
+// Unbounded board for very large k-in-a-row games: only occupied cells are stored, in an
+// open-addressing table keyed by the packed (row, col) coordinate. It has no size, so cells
+// are addressed by that packed long instead of row * size + col and it is not a Board;
+// candidateMoves() stands in for the free-cell list, which would be infinite.
+class SparseBoard {
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    public final int winLength;
+    private long[] keys = new long[1024];
+    // 0 marks an empty slot, otherwise the piece type ordinal + 1
+    private byte[] values = new byte[1024];
+    private int pieceCount;
+    private long zobristHash;
+    private int minRow = Integer.MAX_VALUE;
+    private int maxRow = Integer.MIN_VALUE;
+    private int minCol = Integer.MAX_VALUE;
+    private int maxCol = Integer.MIN_VALUE;
+
+    public SparseBoard(int winLength) {
+        if(winLength < 1) {
+            throw new IllegalArgumentException("Win length must be at least 1: " + winLength);
+        }
+        this.winLength = winLength;
+    }
+
+    public static long cell(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    public static int rowOf(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    public static int colOf(long cell) {
+        return (int) cell;
+    }
+
+    public boolean addPiece(int row, int col, PlayingPiece playingPiece) {
+        long key = cell(row, col);
+        int slot = find(key);
+        if(values[slot] != 0) return false;
+
+        int type = playingPiece.pieceType.ordinal();
+        keys[slot] = key;
+        values[slot] = (byte) (type + 1);
+        zobristHash ^= Zobrist.key(type, key);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minCol = Math.min(minCol, col);
+        maxCol = Math.max(maxCol, col);
+        if(++pieceCount * 2 > keys.length) resize();
+        return true;
+    }
+
+    public PieceType getPieceType(int row, int col) {
+        byte value = values[find(cell(row, col))];
+        return value == 0 ? null : PIECE_TYPES[value - 1];
+    }
+
+    // Walks outward from the last placed cell in the 4 line directions, O(winLength)
+    public boolean isWinner(int row, int col, PieceType pieceType) {
+        for(int[] dir: DIRECTIONS) {
+            int run = 1 + countRun(row, col, dir[0], dir[1], pieceType) + countRun(row, col, -dir[0], -dir[1], pieceType);
+            if(run >= winLength) return true;
+        }
+        return false;
+    }
+
+    private int countRun(int row, int col, int dr, int dc, PieceType pieceType) {
+        int run = 0;
+        int r = row + dr;
+        int c = col + dc;
+        while(run < winLength - 1 && getPieceType(r, c) == pieceType) {
+            run++;
+            r += dr;
+            c += dc;
+        }
+        return run;
+    }
+
+    // Empty cells touching an occupied one, as packed cells in row-major order; the origin
+    // while the board is empty. Sorting removes the duplicates without a set per call.
+    public long[] candidateMoves() {
+        if(pieceCount == 0) return new long[]{cell(0, 0)};
+        long[] candidates = new long[pieceCount * 8];
+        int count = 0;
+        for(int slot = 0; slot < keys.length; slot++) {
+            if(values[slot] == 0) continue;
+            int row = rowOf(keys[slot]);
+            int col = colOf(keys[slot]);
+            for(int dr = -1; dr <= 1; dr++) {
+                for(int dc = -1; dc <= 1; dc++) {
+                    if((dr != 0 || dc != 0) && getPieceType(row + dr, col + dc) == null) {
+                        candidates[count++] = cell(row + dr, col + dc);
+                    }
                 }
             }
         }
-        return freeCells;
+        Arrays.sort(candidates, 0, count);
+        int distinct = 0;
+        for(int i = 0; i < count; i++) {
+            if(distinct == 0 || candidates[i] != candidates[distinct - 1]) candidates[distinct++] = candidates[i];
+        }
+        return Arrays.copyOf(candidates, distinct);
+    }
+
+    // A random candidate move as a packed cell
+    public long randomCandidateMove(Random random) {
+        long[] candidates = candidateMoves();
+        return candidates[random.nextInt(candidates.length)];
+    }
+
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    public int getPieceCount() {
+        return pieceCount;
+    }
+
+    // Prints the bounding box of the occupied cells
+    public void printBoard() {
+        for(int i = minRow; pieceCount > 0 && i <= maxRow; i++) {
+            for(int j = minCol; j <= maxCol; j++) {
+                PieceType pieceType = getPieceType(i, j);
+                if(pieceType != null) {
+                    System.out.print(pieceType.name() + " ");
+                } else {
+                    System.out.print("  ");
+                }
+                 System.out.print(" | ");
+            }
+            System.out.println();
+        }
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (Zobrist.key(0, key) & mask);
+        while(values[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        byte[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new byte[oldValues.length * 2];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
     }
 }
 
@@ -101,6 +501,14 @@ class TicTacToeGame {
     Board gameboard;
 
     public void initializeGame() {
+        initializeGame(3, false);
+    }
+
+    public void initializeGame(int size, boolean compactBoard) {
+        initializeGame(size, size, compactBoard);
+    }
+
+    public void initializeGame(int size, int winLength, boolean compactBoard) {
         players = new LinkedList<>();
         PlayingPiece pieceX = new PlayingPiece(PieceType.X);
         Player p1 = new Player("P1", pieceX);
@@ -111,25 +519,32 @@ class TicTacToeGame {
         players.add(p1);
         players.add(p2);
 
-        gameboard = new Board(3);
+        gameboard = compactBoard ? new BitBoard(size, winLength) : new Board(size, winLength);
     }
 
     public String startGame() {
+        Scanner sc = new Scanner(System.in);
         boolean noWinner = true;
         while(noWinner) {
             Player currPlayer = players.removeFirst();
             gameboard.printBoard();
-            List<Pair<Integer, Integer>> freeSpaces = gameboard.getFreeCells();
-            if(freeSpaces.isEmpty()) {
+            if(gameboard.isFull()) {
                 noWinner = false;
                 continue;
             }
 
-            System.out.println("Player: "+ currPlayer.name+ " enter row: ");
-            Scanner sc = new Scanner(System.in);
-            int inputRow = sc.nextInt();
-            System.out.println("Player: "+ currPlayer.name+  " enter col: ");
-            int inputCol = sc.nextInt();
+            int inputRow;
+            int inputCol;
+            if(currPlayer.moveStrategy != null) {
+                int cell = currPlayer.moveStrategy.chooseMove(gameboard, currPlayer.playingPiece.pieceType);
+                inputRow = cell / gameboard.size;
+                inputCol = cell % gameboard.size;
+            } else {
+                System.out.println("Player: "+ currPlayer.name+ " enter row: ");
+                inputRow = sc.nextInt();
+                System.out.println("Player: "+ currPlayer.name+  " enter col: ");
+                inputCol = sc.nextInt();
+            }
 
             boolean pieceAddedSuccessfully = gameboard.addPiece(inputRow, inputCol, currPlayer.playingPiece);
             if(!pieceAddedSuccessfully) {
@@ -148,35 +563,1096 @@ class TicTacToeGame {
     }
 
     public boolean isWinner(int row, int col, PieceType pieceType) {
-        boolean rowMatch = true;
-        boolean colMatch = true;
-        boolean firstDiagMatch = true;
-        boolean secondDiagMatch = true;
+        return gameboard.isWinner(row, col, pieceType);
+    }
+
+}
+
+// Computer player: negamax with alpha-beta pruning and iterative deepening under a
+// per-move time budget. Positions are cached in a fixed-size transposition table keyed
+// by the Zobrist hash of the position's canonical orientation, so all 8 rotations and
+// reflections of a position share one entry. The leaf evaluation and the set of empty
+// cells next to a piece are kept up to date by make/unmake, so a node costs O(k) rather
+// than a board scan. Not thread-safe; use one per game thread.
+class MinimaxStrategy implements MoveStrategy {
+    private static final int WIN_SCORE = 1_000_000;
+    private static final int MAX_HEURISTIC = WIN_SCORE / 2;
+    private static final int INFINITY = WIN_SCORE + 1;
+    private static final byte EXACT = 0;
+    private static final byte LOWER_BOUND = 1;
+    private static final byte UPPER_BOUND = 2;
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    // the clock is read about this often, whatever a node costs on the current board
+    private static final long CLOCK_CHECK_NANOS = 100_000;
+
+    private final int winLength;
+    private final long timeBudgetNanos;
+
+    private final long[] ttKeys;
+    private final int[] ttValues;
+    private final int[] ttMoves;
+    private final byte[] ttDepths;
+    private final byte[] ttFlags;
+    private final byte[] ttGenerations;
+    private final int ttMask;
+    private byte generation;
+
+    private int size;
+    private int k;
+    private byte[] cells;
+    private int pieces;
+    private int[] neighbours;
+    // empty cells with a piece next to them, as a swap-remove set; nearPositions is -1 for non-members
+    private int[] nearCells;
+    private int[] nearPositions;
+    private int nearCount;
+    // per player, direction and k-long window (by its first cell): that player's pieces in it
+    private int[][][] windowCounts;
+    private long[] windowWeights;
+    // sum of the window weights from X's point of view
+    private long heuristic;
+    private int[][] symmetry;
+    private int[][] inverse;
+    private long[][] keys;
+    // one buffer per ply, allocated the first time the search gets that deep
+    private int[][] moveBuffers = new int[16][];
+    private final long[] hashes = new long[8];
+
+    private long deadline;
+    private long lastClockCheck;
+    private int nodesPerCheck;
+    private int nodesUntilCheck;
+    private boolean aborted;
+
+    // Plays to the win length of whatever board it is asked about
+    public MinimaxStrategy(long timeBudgetMillis) {
+        this(0, timeBudgetMillis);
+    }
+
+    public MinimaxStrategy(int winLength, long timeBudgetMillis) {
+        this(winLength, timeBudgetMillis, 20);
+    }
+
+    public MinimaxStrategy(int winLength, long timeBudgetMillis, int tableSizeBits) {
+        this.winLength = winLength;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000L;
+        int tableSize = 1 << tableSizeBits;
+        ttKeys = new long[tableSize];
+        ttValues = new int[tableSize];
+        ttMoves = new int[tableSize];
+        ttDepths = new byte[tableSize];
+        ttFlags = new byte[tableSize];
+        ttGenerations = new byte[tableSize];
+        ttMask = tableSize - 1;
+    }
+
+    @Override
+    public int chooseMove(Board board, PieceType pieceType) {
+        prepare(board);
+        generation++;
+        lastClockCheck = System.nanoTime();
+        deadline = lastClockCheck + timeBudgetNanos;
+        aborted = false;
+        nodesPerCheck = 1;
+        nodesUntilCheck = 1;
+
+        int me = pieceType.ordinal() + 1;
+        int empty = board.freeCellCount();
+        int[] rootMoves = rootMoves(me);
+        if(rootMoves.length == 0) return -1;
+
+        int bestMove = rootMoves[0];
+        for(int depth = 1; depth <= empty && !aborted; depth++) {
+            int iterationBest = -1;
+            int bestScore = -INFINITY;
+            int alpha = -INFINITY;
+            for(int i = 0; i < rootMoves.length; i++) {
+                int move = i == 0 ? bestMove : (rootMoves[i] == bestMove ? rootMoves[0] : rootMoves[i]);
+                make(move, me);
+                int score = isWin(move, me) ? WIN_SCORE - 1 : -search(depth - 1, -INFINITY, -alpha, 1, 3 - me, empty - 1);
+                unmake(move, me);
+                if(aborted) break;
+                if(score > bestScore) {
+                    bestScore = score;
+                    iterationBest = move;
+                }
+                alpha = Math.max(alpha, score);
+            }
+            if(aborted) break;
+            bestMove = iterationBest;
+            if(Math.abs(bestScore) > MAX_HEURISTIC) break;
+        }
+        return bestMove;
+    }
+
+    private int search(int depth, int alpha, int beta, int ply, int toMove, int empty) {
+        if(--nodesUntilCheck <= 0) checkClock();
+        if(aborted) return 0;
+        if(empty == 0) return 0;
+        if(depth == 0) return evaluate(toMove);
+
+        int sym = canonicalSymmetry();
+        long key = hashes[sym];
+        int slot = (int) key & ttMask;
+        int ttMove = -1;
+        if(ttKeys[slot] == key) {
+            ttMove = ttMoves[slot] < 0 ? -1 : inverse[sym][ttMoves[slot]];
+            if(ttDepths[slot] >= depth) {
+                int value = fromTable(ttValues[slot], ply);
+                byte flag = ttFlags[slot];
+                if(flag == EXACT) return value;
+                if(flag == LOWER_BOUND && value >= beta) return value;
+                if(flag == UPPER_BOUND && value <= alpha) return value;
+            }
+        }
+
+        int alphaOrig = alpha;
+        int best = -INFINITY;
+        int bestMove = -1;
+        int[] moves = moveBuffer(ply);
+        int count = generateMoves(moves, ttMove);
+        for(int i = 0; i < count; i++) {
+            int move = moves[i];
+            make(move, toMove);
+            int score = isWin(move, toMove) ? WIN_SCORE - ply - 1 : -search(depth - 1, -beta, -alpha, ply + 1, 3 - toMove, empty - 1);
+            unmake(move, toMove);
+            if(aborted) return 0;
+            if(score > best) {
+                best = score;
+                bestMove = move;
+            }
+            if(score > alpha) alpha = score;
+            if(alpha >= beta) break;
+        }
+
+        if(ttKeys[slot] != key || ttGenerations[slot] != generation || depth >= ttDepths[slot]) {
+            ttKeys[slot] = key;
+            ttValues[slot] = toTable(best, ply);
+            ttMoves[slot] = bestMove < 0 ? -1 : symmetry[sym][bestMove];
+            ttDepths[slot] = (byte) Math.min(depth, Byte.MAX_VALUE);
+            ttFlags[slot] = best <= alphaOrig ? UPPER_BOUND : (best >= beta ? LOWER_BOUND : EXACT);
+            ttGenerations[slot] = generation;
+        }
+        return best;
+    }
+
+    // Distinct first moves: moves leading to symmetric positions are searched once
+    private int[] rootMoves(int me) {
+        int[] candidates = new int[size * size];
+        int count = generateMoves(candidates, -1);
+        Set<Long> seen = new HashSet<>();
+        int distinct = 0;
+        for(int i = 0; i < count; i++) {
+            make(candidates[i], me);
+            boolean fresh = seen.add(hashes[canonicalSymmetry()]);
+            unmake(candidates[i], me);
+            if(fresh) candidates[distinct++] = candidates[i];
+        }
+        return Arrays.copyOf(candidates, distinct);
+    }
+
+    // Empty cells next to an existing piece (all empty cells on small boards), best known move first
+    private int generateMoves(int[] moves, int firstMove) {
+        int count = 0;
+        if(firstMove >= 0 && cells[firstMove] == 0) moves[count++] = firstMove;
+        if(size <= 4) {
+            for(int cell = 0; cell < cells.length; cell++) {
+                if(cells[cell] == 0 && cell != firstMove) moves[count++] = cell;
+            }
+            return count;
+        }
+        for(int i = 0; i < nearCount; i++) {
+            if(nearCells[i] != firstMove) moves[count++] = nearCells[i];
+        }
+        if(count == 0 && pieces == 0) moves[count++] = (size / 2) * size + size / 2;
+        return count;
+    }
+
+    private int[] moveBuffer(int ply) {
+        if(ply >= moveBuffers.length) moveBuffers = Arrays.copyOf(moveBuffers, Math.max(ply + 1, moveBuffers.length * 2));
+        if(moveBuffers[ply] == null) moveBuffers[ply] = new int[cells.length];
+        return moveBuffers[ply];
+    }
+
+    // Reads the clock and rescales the node interval so the next read lands CLOCK_CHECK_NANOS later
+    private void checkClock() {
+        long now = System.nanoTime();
+        if(now >= deadline) {
+            aborted = true;
+            return;
+        }
+        long elapsed = Math.max(1, now - lastClockCheck);
+        long target = Math.min(CLOCK_CHECK_NANOS, deadline - now);
+        nodesPerCheck = (int) Math.max(1, Math.min(1 << 16, (long) nodesPerCheck * target / elapsed));
+        nodesUntilCheck = nodesPerCheck;
+        lastClockCheck = now;
+    }
+
+    private void make(int cell, int player) {
+        cells[cell] = (byte) player;
+        pieces++;
+        for(int s = 0; s < 8; s++) hashes[s] ^= keys[player - 1][symmetry[s][cell]];
+        adjustNeighbours(cell, 1);
+        adjustWindows(cell, player, 1);
+    }
+
+    private void unmake(int cell, int player) {
+        cells[cell] = 0;
+        pieces--;
+        for(int s = 0; s < 8; s++) hashes[s] ^= keys[player - 1][symmetry[s][cell]];
+        adjustNeighbours(cell, -1);
+        adjustWindows(cell, player, -1);
+    }
+
+    // Also covers the cell itself, which just changed between empty and occupied
+    private void adjustNeighbours(int cell, int delta) {
+        int row = cell / size;
+        int col = cell % size;
+        for(int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for(int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                int neighbour = r * size + c;
+                neighbours[neighbour] += delta;
+                boolean near = cells[neighbour] == 0 && neighbours[neighbour] > 0;
+                if(near != nearPositions[neighbour] >= 0) {
+                    if(near) addNear(neighbour);
+                    else removeNear(neighbour);
+                }
+            }
+        }
+    }
+
+    private void addNear(int cell) {
+        nearPositions[cell] = nearCount;
+        nearCells[nearCount++] = cell;
+    }
+
+    private void removeNear(int cell) {
+        int position = nearPositions[cell];
+        int last = nearCells[--nearCount];
+        nearCells[position] = last;
+        nearPositions[last] = position;
+        nearPositions[cell] = -1;
+    }
+
+    // Updates every k-long window through the cell and the heuristic with it: O(4k)
+    private void adjustWindows(int cell, int player, int delta) {
+        int row = cell / size;
+        int col = cell % size;
+        for(int d = 0; d < DIRECTIONS.length; d++) {
+            int dr = DIRECTIONS[d][0];
+            int dc = DIRECTIONS[d][1];
+            int[] xs = windowCounts[0][d];
+            int[] os = windowCounts[1][d];
+            for(int i = 0; i < k; i++) {
+                int startRow = row - dr * i;
+                int startCol = col - dc * i;
+                if(startRow < 0 || startCol < 0 || startRow >= size || startCol >= size) break;
+                int endRow = startRow + dr * (k - 1);
+                int endCol = startCol + dc * (k - 1);
+                if(endRow < 0 || endCol < 0 || endRow >= size || endCol >= size) continue;
+                int window = startRow * size + startCol;
+                heuristic -= windowScore(xs[window], os[window]);
+                windowCounts[player - 1][d][window] += delta;
+                heuristic += windowScore(xs[window], os[window]);
+            }
+        }
+    }
+
+    // A window only one player can still complete counts for them, more the fuller it is
+    private long windowScore(int x, int o) {
+        if(o == 0) return x == 0 ? 0 : windowWeights[x];
+        return x == 0 ? -windowWeights[o] : 0;
+    }
+
+    private boolean isWin(int cell, int player) {
+        int row = cell / size;
+        int col = cell % size;
+        for(int[] dir: DIRECTIONS) {
+            int run = 1 + countRun(row, col, dir[0], dir[1], player) + countRun(row, col, -dir[0], -dir[1], player);
+            if(run >= k) return true;
+        }
+        return false;
+    }
+
+    private int countRun(int row, int col, int dr, int dc, int player) {
+        int run = 0;
+        int r = row + dr;
+        int c = col + dc;
+        while(run < k && r >= 0 && c >= 0 && r < size && c < size && cells[r * size + c] == player) {
+            run++;
+            r += dr;
+            c += dc;
+        }
+        return run;
+    }
+
+    // The incrementally kept window sum, from the side to move's point of view
+    private int evaluate(int toMove) {
+        long score = toMove == 1 ? heuristic : -heuristic;
+        return (int) Math.max(-MAX_HEURISTIC, Math.min(MAX_HEURISTIC, score));
+    }
+
+    private int canonicalSymmetry() {
+        int best = 0;
+        for(int s = 1; s < 8; s++) {
+            if(hashes[s] < hashes[best]) best = s;
+        }
+        return best;
+    }
+
+    // Win scores are stored relative to the node so they stay valid at any ply
+    private static int toTable(int value, int ply) {
+        if(value > MAX_HEURISTIC) return value + ply;
+        if(value < -MAX_HEURISTIC) return value - ply;
+        return value;
+    }
 
-        for(int i = 0; i < gameboard.size; i++) {
-            if(gameboard.board[row][i] == null || gameboard.board[row][i].pieceType != pieceType) {
-                rowMatch = false;
+    private static int fromTable(int value, int ply) {
+        if(value > MAX_HEURISTIC) return value - ply;
+        if(value < -MAX_HEURISTIC) return value + ply;
+        return value;
+    }
+
+    private void prepare(Board board) {
+        if(board.size != size) {
+            size = board.size;
+            int n = size * size;
+            cells = new byte[n];
+            neighbours = new int[n];
+            nearCells = new int[n];
+            nearPositions = new int[n];
+            windowCounts = new int[2][DIRECTIONS.length][n];
+            keys = new long[2][n];
+            symmetry = new int[8][n];
+            inverse = new int[8][n];
+            moveBuffers = new int[16][];
+            for(int cell = 0; cell < n; cell++) {
+                keys[0][cell] = Zobrist.key(0, cell);
+                keys[1][cell] = Zobrist.key(1, cell);
+                int r = cell / size;
+                int c = cell % size;
+                int m = size - 1;
+                int[][] images = {{r, c}, {c, m - r}, {m - r, m - c}, {m - c, r}, {r, m - c}, {m - r, c}, {c, r}, {m - c, m - r}};
+                for(int s = 0; s < 8; s++) {
+                    int image = images[s][0] * size + images[s][1];
+                    symmetry[s][cell] = image;
+                    inverse[s][image] = cell;
+                }
             }
         }
-        for(int i = 0; i < gameboard.size; i++) {
-            if(gameboard.board[i][col] == null || gameboard.board[i][col].pieceType != pieceType) {
-                colMatch = false;
+        k = winLength > 0 ? Math.min(winLength, size) : board.winLength;
+        if(windowWeights == null || windowWeights.length != k + 1) {
+            windowWeights = new long[k + 1];
+            // capped so that summing thousands of windows cannot overflow
+            for(int count = 0; count <= k; count++) windowWeights[count] = 1L << Math.min(2 * count, 40);
+        }
+        Arrays.fill(cells, (byte) 0);
+        Arrays.fill(neighbours, 0);
+        Arrays.fill(nearPositions, -1);
+        for(int[][] perPlayer: windowCounts) {
+            for(int[] perDirection: perPlayer) Arrays.fill(perDirection, 0);
+        }
+        nearCount = 0;
+        pieces = 0;
+        heuristic = 0;
+        Arrays.fill(hashes, 0L);
+        for(int cell = 0; cell < cells.length; cell++) {
+            PieceType pieceType = board.getPieceType(cell / size, cell % size);
+            if(pieceType != null) make(cell, pieceType.ordinal() + 1);
+        }
+        // the identity orientation is exactly the board's own incrementally maintained hash
+        hashes[0] = board.getZobristHash();
+    }
+}
+
+// Moves of one game in play order, as primitive arrays so recording allocates nothing per move
+class MoveLog {
+    private int[] cells = new int[16];
+    private byte[] pieces = new byte[16];
+    private int size;
+
+    public void add(int cell, PieceType pieceType) {
+        if(size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+            pieces = Arrays.copyOf(pieces, size * 2);
+        }
+        cells[size] = cell;
+        pieces[size] = (byte) pieceType.ordinal();
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int cell(int i) {
+        return cells[i];
+    }
+
+    public byte piece(int i) {
+        return pieces[i];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
+
+// Append-only binary journal of finished games, written through a direct buffer.
+// Layout per game: GAME_START, varint board size and win length, then per move a player byte
+// (PieceType ordinal) and varint cell index, then GAME_END and a result byte.
+class MoveJournal implements AutoCloseable {
+    static final byte GAME_START = (byte) 0xFE;
+    static final byte GAME_END = (byte) 0xFF;
+    static final byte DRAW = 2;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    public MoveJournal(Path file) throws IOException {
+        this(file, 1 << 16);
+    }
+
+    public MoveJournal(Path file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64));
+    }
+
+    public synchronized void writeGame(Board board, MoveLog moves, PieceType winner) throws IOException {
+        ensureRemaining(1 + 2 * MAX_VARINT_BYTES);
+        buffer.put(GAME_START);
+        putVarint(board.size);
+        putVarint(board.winLength);
+        for(int i = 0; i < moves.size(); i++) {
+            ensureRemaining(1 + MAX_VARINT_BYTES);
+            buffer.put(moves.piece(i));
+            putVarint(moves.cell(i));
+        }
+        ensureRemaining(2);
+        buffer.put(GAME_END);
+        buffer.put(winner == null ? DRAW : (byte) winner.ordinal());
+    }
+
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) flush();
+    }
+
+    private void putVarint(int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
+
+// Receives archived games one at a time. The arrays are reused between calls and
+// only the first moveCount entries are valid.
+interface GameVisitor {
+    void visit(long gameIndex, int boardSize, int winLength, int[] cells, byte[] pieces, int moveCount, PieceType winner);
+}
+
+// Streams a MoveJournal file through a reusable buffer without building per-game objects.
+// Every scan notes where each GAMES_PER_MARK-th game starts, so rebuildBoard can seek close
+// to its game instead of reading the file from the start; the journal is append-only, so
+// the offsets stay valid.
+class MoveJournalReader {
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+    private static final int GAMES_PER_MARK = 64;
+
+    private final Path file;
+    // file offset of game k * GAMES_PER_MARK at index k; guarded by this
+    private long[] marks = new long[16];
+    private int markCount;
+
+    public MoveJournalReader(Path file) {
+        this.file = file;
+    }
+
+    public long forEachGame(GameVisitor visitor) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel, ByteBuffer.allocateDirect(1 << 20), 0, 0, Long.MAX_VALUE, visitor);
+        }
+    }
+
+    // Rebuilds the board of the given game as it stood after its first moveCount moves
+    public Board rebuildBoard(long gameIndex, int moveCount, boolean compactBoard) throws IOException {
+        Board[] rebuilt = new Board[1];
+        int mark;
+        long offset;
+        synchronized(this) {
+            mark = (int) Math.min(gameIndex / GAMES_PER_MARK, markCount - 1);
+            offset = mark < 0 ? 0 : marks[mark];
+        }
+        long firstGame = Math.max(mark, 0) * (long) GAMES_PER_MARK;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // at most GAMES_PER_MARK games are read, so a small buffer will do
+            scan(channel, ByteBuffer.allocate(1 << 12), offset, firstGame, gameIndex, (index, boardSize, winLength, cells, pieces, moves, winner) -> {
+                if(index == gameIndex) {
+                    rebuilt[0] = replay(boardSize, winLength, cells, pieces, Math.min(moveCount, moves), compactBoard);
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt journal: game " + gameIndex + " cannot be replayed", e);
+        }
+        if(rebuilt[0] == null) throw new IllegalArgumentException("No game " + gameIndex + " in " + file);
+        return rebuilt[0];
+    }
+
+    // Visits games firstGame.. (the first starting at offset) up to lastGame or the end of the
+    // file; returns the index of the game after the last one visited
+    private long scan(FileChannel channel, ByteBuffer buffer, long offset, long firstGame, long lastGame, GameVisitor visitor) throws IOException {
+        channel.position(offset);
+        buffer.clear().flip();
+        int[] cells = new int[64];
+        byte[] pieces = new byte[64];
+        long games = firstGame;
+        while(games <= lastGame && fill(channel, buffer, 1)) {
+            if(games % GAMES_PER_MARK == 0) mark(games / GAMES_PER_MARK, channel.position() - buffer.remaining());
+            if(buffer.get() != MoveJournal.GAME_START) {
+                throw new IOException("Corrupt journal: expected game start in game " + games);
+            }
+            int boardSize = readVarint(channel, buffer);
+            int winLength = readVarint(channel, buffer);
+            if(boardSize <= 0 || winLength <= 0 || winLength > boardSize) {
+                throw new IOException("Corrupt journal: " + boardSize + "x" + boardSize + " board with win length " + winLength + " in game " + games);
             }
+            long cellCount = (long) boardSize * boardSize;
+            int moveCount = 0;
+            while(true) {
+                if(!fill(channel, buffer, 1)) throw new EOFException("Truncated game " + games);
+                byte tag = buffer.get();
+                if(tag == MoveJournal.GAME_END) break;
+                if(tag < 0 || tag >= PIECE_TYPES.length) {
+                    throw new IOException("Corrupt journal: piece " + tag + " in game " + games);
+                }
+                if(moveCount == cells.length) {
+                    cells = Arrays.copyOf(cells, moveCount * 2);
+                    pieces = Arrays.copyOf(pieces, moveCount * 2);
+                }
+                pieces[moveCount] = tag;
+                cells[moveCount] = readVarint(channel, buffer);
+                if(cells[moveCount] < 0 || cells[moveCount] >= cellCount) {
+                    throw new IOException("Corrupt journal: cell " + cells[moveCount] + " in game " + games);
+                }
+                moveCount++;
+            }
+            if(!fill(channel, buffer, 1)) throw new EOFException("Truncated game " + games);
+            byte result = buffer.get();
+            if(result != MoveJournal.DRAW && (result < 0 || result >= PIECE_TYPES.length)) {
+                throw new IOException("Corrupt journal: result " + result + " in game " + games);
+            }
+            visitor.visit(games, boardSize, winLength, cells, pieces, moveCount, result == MoveJournal.DRAW ? null : PIECE_TYPES[result]);
+            games++;
         }
-        for(int i = 0, j = 0; i < gameboard.size; i++, j++) {
-            if(gameboard.board[i][j] == null || gameboard.board[i][j].pieceType != pieceType) {
-                firstDiagMatch = false;
+        return games;
+    }
+
+    private synchronized void mark(long mark, long offset) {
+        if(mark != markCount) return;
+        if(markCount == marks.length) marks = Arrays.copyOf(marks, markCount * 2);
+        marks[markCount++] = offset;
+    }
+
+    public static Board replay(int boardSize, int winLength, int[] cells, byte[] pieces, int moveCount, boolean compactBoard) {
+        Board board = compactBoard ? new BitBoard(boardSize, winLength) : new Board(boardSize, winLength);
+        PlayingPiece[] playingPieces = new PlayingPiece[PIECE_TYPES.length];
+        for(int i = 0; i < PIECE_TYPES.length; i++) playingPieces[i] = new PlayingPiece(PIECE_TYPES[i]);
+        for(int i = 0; i < moveCount; i++) {
+            if(!board.addPiece(cells[i] / boardSize, cells[i] % boardSize, playingPieces[pieces[i]])) {
+                throw new IllegalArgumentException("Move " + i + " plays cell " + cells[i] + ", which is already taken");
             }
         }
-        for(int i = 0, j = gameboard.size - 1; i < gameboard.size; i++, j--) {
-            if(gameboard.board[i][j] == null || gameboard.board[i][j].pieceType != pieceType) {
-                secondDiagMatch = false;
+        return board;
+    }
+
+    private static int readVarint(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            if(!fill(channel, buffer, 1)) throw new EOFException("Truncated varint");
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if(buffer.remaining() >= bytes) return true;
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            if(channel.read(buffer) < 0) break;
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+}
+
+class SelfPlayReport {
+    public final long games;
+    public final long firstPlayerWins;
+    public final long secondPlayerWins;
+    public final long draws;
+    public final long elapsedNanos;
+
+    public SelfPlayReport(long games, long firstPlayerWins, long secondPlayerWins, long draws, long elapsedNanos) {
+        this.games = games;
+        this.firstPlayerWins = firstPlayerWins;
+        this.secondPlayerWins = secondPlayerWins;
+        this.draws = draws;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public double gamesPerSecond() {
+        return elapsedNanos == 0 ? 0 : games * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "Games: " + games + ", P1 wins: " + firstPlayerWins + ", P2 wins: " + secondPlayerWins
+                + ", Draws: " + draws + ", Games/sec: " + String.format("%.0f", gamesPerSecond());
+    }
+}
+
+// Plays games without any console I/O and spreads them over a fork-join pool.
+// Strategies come from suppliers so each worker gets its own instances and
+// stateful strategies never need to be thread-safe.
+class SelfPlayEngine {
+    private static final int GAMES_PER_TASK = 256;
+
+    private final int boardSize;
+    private final int winLength;
+    private final boolean compactBoard;
+    private final ForkJoinPool pool;
+    private MoveJournal journal;
+
+    public SelfPlayEngine(int boardSize, boolean compactBoard) {
+        this(boardSize, boardSize, compactBoard, ForkJoinPool.commonPool());
+    }
+
+    public SelfPlayEngine(int boardSize, int winLength, boolean compactBoard) {
+        this(boardSize, winLength, compactBoard, ForkJoinPool.commonPool());
+    }
+
+    public SelfPlayEngine(int boardSize, int winLength, boolean compactBoard, ForkJoinPool pool) {
+        this.boardSize = boardSize;
+        this.winLength = winLength;
+        this.compactBoard = compactBoard;
+        this.pool = pool;
+    }
+
+    // Archive every game played from now on; null turns recording off
+    public void setJournal(MoveJournal journal) {
+        this.journal = journal;
+    }
+
+    public SelfPlayReport run(int games, Supplier<MoveStrategy> firstPlayer, Supplier<MoveStrategy> secondPlayer) {
+        LongAdder firstWins = new LongAdder();
+        LongAdder secondWins = new LongAdder();
+        LongAdder draws = new LongAdder();
+
+        long start = System.nanoTime();
+        pool.invoke(new GameBatch(0, games, firstPlayer, secondPlayer, firstWins, secondWins, draws));
+        long elapsed = System.nanoTime() - start;
+
+        return new SelfPlayReport(games, firstWins.sum(), secondWins.sum(), draws.sum(), elapsed);
+    }
+
+    public Board newBoard() {
+        return compactBoard ? new BitBoard(boardSize, winLength) : new Board(boardSize, winLength);
+    }
+
+    // Plays one game to completion with X moving first; returns the winning piece or null on a draw
+    public static PieceType playGame(Board board, MoveStrategy first, MoveStrategy second) {
+        return playGame(board, first, second, null);
+    }
+
+    // Same as above, additionally recording every move into moveLog when it is non-null
+    public static PieceType playGame(Board board, MoveStrategy first, MoveStrategy second, MoveLog moveLog) {
+        PlayingPiece[] pieces = {new PlayingPiece(PieceType.X), new PlayingPiece(PieceType.O)};
+        MoveStrategy[] strategies = {first, second};
+        int turn = 0;
+        while(!board.isFull()) {
+            PlayingPiece piece = pieces[turn];
+            int cell = strategies[turn].chooseMove(board, piece.pieceType);
+            int row = cell / board.size;
+            int col = cell % board.size;
+            if(cell < 0 || !board.addPiece(row, col, piece)) {
+                throw new IllegalStateException("Strategy chose an invalid cell: " + cell);
+            }
+            if(moveLog != null) moveLog.add(cell, piece.pieceType);
+            if(board.isWinner(row, col, piece.pieceType)) {
+                return piece.pieceType;
+            }
+            turn ^= 1;
+        }
+        return null;
+    }
+
+    private class GameBatch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Supplier<MoveStrategy> firstPlayer;
+        private final Supplier<MoveStrategy> secondPlayer;
+        private final LongAdder firstWins;
+        private final LongAdder secondWins;
+        private final LongAdder draws;
+
+        GameBatch(int from, int to, Supplier<MoveStrategy> firstPlayer, Supplier<MoveStrategy> secondPlayer,
+                  LongAdder firstWins, LongAdder secondWins, LongAdder draws) {
+            this.from = from;
+            this.to = to;
+            this.firstPlayer = firstPlayer;
+            this.secondPlayer = secondPlayer;
+            this.firstWins = firstWins;
+            this.secondWins = secondWins;
+            this.draws = draws;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > GAMES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GameBatch(from, mid, firstPlayer, secondPlayer, firstWins, secondWins, draws),
+                        new GameBatch(mid, to, firstPlayer, secondPlayer, firstWins, secondWins, draws));
+                return;
+            }
+            MoveStrategy first = firstPlayer.get();
+            MoveStrategy second = secondPlayer.get();
+            int xWins = 0;
+            int oWins = 0;
+            int ties = 0;
+            MoveLog moveLog = journal == null ? null : new MoveLog();
+            for(int i = from; i < to; i++) {
+                if(moveLog != null) moveLog.clear();
+                Board board = newBoard();
+                PieceType winner = playGame(board, first, second, moveLog);
+                if(moveLog != null) writeGame(board, moveLog, winner);
+                if(winner == PieceType.X) xWins++;
+                else if(winner == PieceType.O) oWins++;
+                else ties++;
+            }
+            firstWins.add(xWins);
+            secondWins.add(oWins);
+            draws.add(ties);
+        }
+
+        private void writeGame(Board board, MoveLog moveLog, PieceType winner) {
+            try {
+                journal.writeGame(board, moveLog, winner);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
+
+// Lock-free latency histogram with 8 linear sub-buckets per power of two (~12% precision)
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BUCKET_BITS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    public long count() {
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++) total += counts.get(i);
+        return total;
+    }
+
+    // Lower bound of the bucket holding the given percentile (0-100), in nanos
+    public long percentile(double percentile) {
+        long total = count();
+        if(total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if(seen >= target) return lowerBound(i);
+        }
+        return lowerBound(counts.length() - 1);
+    }
+
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | mantissa;
+    }
+
+    private static long lowerBound(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS | mantissa) << (exponent - SUB_BUCKET_BITS);
+    }
+}
+
+enum MoveResult {
+    ACCEPTED,
+    WIN,
+    DRAW,
+    INVALID_MOVE,
+    NOT_YOUR_TURN,
+    GAME_OVER,
+    SESSION_NOT_FOUND
+}
+
+class MoveCommand {
+    // queued by the sweeper; closes the session if it is still idle when the mailbox reaches it
+    static final MoveCommand EVICT_IF_IDLE = new MoveCommand(null, -1, -1);
+
+    public final String playerName;
+    public final int row;
+    public final int col;
+    public final long enqueuedNanos;
+    public final CompletableFuture<MoveResult> result = new CompletableFuture<>();
+
+    public MoveCommand(String playerName, int row, int col) {
+        this.playerName = playerName;
+        this.row = row;
+        this.col = col;
+        this.enqueuedNanos = System.nanoTime();
+    }
+}
+
+// One hosted game. Its state is only touched by whichever worker is draining its
+// mailbox, and at most one worker drains a mailbox at a time.
+class GameSession {
+    public final long sessionId;
+    private final Board board;
+    private final Player[] players;
+    private int turn;
+    private boolean finished;
+    // set by the mailbox itself, so every move queued after the eviction is rejected
+    private boolean closed;
+    private String winner;
+    final MoveLog moveLog = new MoveLog();
+    volatile long lastActivityNanos;
+
+    final Queue<MoveCommand> mailbox = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public GameSession(long sessionId, Board board, Player first, Player second) {
+        this.sessionId = sessionId;
+        this.board = board;
+        this.players = new Player[]{first, second};
+        this.lastActivityNanos = System.nanoTime();
+    }
+
+    MoveResult apply(MoveCommand command) {
+        if(closed) return MoveResult.SESSION_NOT_FOUND;
+        lastActivityNanos = System.nanoTime();
+        if(finished) return MoveResult.GAME_OVER;
+        Player currPlayer = players[turn];
+        if(!currPlayer.name.equals(command.playerName)) return MoveResult.NOT_YOUR_TURN;
+        if(!board.addPiece(command.row, command.col, currPlayer.playingPiece)) return MoveResult.INVALID_MOVE;
+        moveLog.add(command.row * board.size + command.col, currPlayer.playingPiece.pieceType);
+
+        if(board.isWinner(command.row, command.col, currPlayer.playingPiece.pieceType)) {
+            finished = true;
+            winner = currPlayer.name;
+            return MoveResult.WIN;
+        }
+        if(board.isFull()) {
+            finished = true;
+            return MoveResult.DRAW;
+        }
+        turn ^= 1;
+        return MoveResult.ACCEPTED;
+    }
+
+    // A move queued before the eviction request may have made the session active again
+    boolean closeIfIdle(long idleTimeoutNanos) {
+        if(closed || System.nanoTime() - lastActivityNanos <= idleTimeoutNanos) return false;
+        closed = true;
+        return true;
+    }
+
+    public String getWinner() {
+        return winner;
+    }
+
+    PieceType winningPiece() {
+        return winner == null ? null : players[turn].playingPiece.pieceType;
+    }
+
+    Board board() {
+        return board;
+    }
+}
+
+// Hosts many concurrent games in memory. Moves are queued on the owning session's
+// mailbox and drained on a shared pool, so there is no global lock; sessions idle
+// for longer than the timeout are evicted by a background sweeper. The sweeper only
+// queues the eviction, so it is ordered with the session's moves like any other command.
+class GameSessionManager implements AutoCloseable {
+    private static final int MAX_COMMANDS_PER_DRAIN = 64;
+
+    private final Map<Long, GameSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+    private final ForkJoinPool workers;
+    private final ScheduledExecutorService sweeper;
+    private final long idleTimeoutNanos;
+
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LongAdder createdSessions = new LongAdder();
+    private final LongAdder evictedSessions = new LongAdder();
+    private volatile MoveJournal journal;
+
+    public GameSessionManager(int workerThreads, long idleTimeoutMillis) {
+        this.workers = new ForkJoinPool(workerThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepInterval = Math.max(1, idleTimeoutMillis / 4);
+        sweeper.scheduleAtFixedRate(this::evictIdleSessions, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // Archive every game that finishes from now on; null turns recording off
+    public void setJournal(MoveJournal journal) {
+        this.journal = journal;
+    }
+
+    public long createSession(int boardSize, boolean compactBoard, String firstPlayer, String secondPlayer) {
+        return createSession(boardSize, boardSize, compactBoard, firstPlayer, secondPlayer);
+    }
+
+    public long createSession(int boardSize, int winLength, boolean compactBoard, String firstPlayer, String secondPlayer) {
+        long sessionId = nextSessionId.getAndIncrement();
+        Board board = compactBoard ? new BitBoard(boardSize, winLength) : new Board(boardSize, winLength);
+        Player p1 = new Player(firstPlayer, new PlayingPiece(PieceType.X));
+        Player p2 = new Player(secondPlayer, new PlayingPiece(PieceType.O));
+        sessions.put(sessionId, new GameSession(sessionId, board, p1, p2));
+        createdSessions.increment();
+        return sessionId;
+    }
+
+    public CompletableFuture<MoveResult> submitMove(long sessionId, String playerName, int row, int col) {
+        GameSession session = sessions.get(sessionId);
+        if(session == null) {
+            return CompletableFuture.completedFuture(MoveResult.SESSION_NOT_FOUND);
+        }
+        MoveCommand command = new MoveCommand(playerName, row, col);
+        session.mailbox.offer(command);
+        schedule(session);
+        return command.result;
+    }
+
+    private void schedule(GameSession session) {
+        if(session.scheduled.compareAndSet(false, true)) {
+            workers.execute(() -> drain(session));
+        }
+    }
+
+    private void drain(GameSession session) {
+        MoveCommand command;
+        int processed = 0;
+        while(processed < MAX_COMMANDS_PER_DRAIN && (command = session.mailbox.poll()) != null) {
+            processed++;
+            if(command == MoveCommand.EVICT_IF_IDLE) {
+                if(session.closeIfIdle(idleTimeoutNanos) && sessions.remove(session.sessionId, session)) {
+                    evictedSessions.increment();
+                }
+                continue;
+            }
+            MoveResult result = session.apply(command);
+            moveLatency.record(System.nanoTime() - command.enqueuedNanos);
+            if(result == MoveResult.WIN || result == MoveResult.DRAW) {
+                try {
+                    archive(session);
+                } catch (UncheckedIOException e) {
+                    // the move stands; its caller learns that the finished game was not archived
+                    command.result.completeExceptionally(e);
+                    continue;
+                }
             }
+            command.result.complete(result);
         }
+        session.scheduled.set(false);
+        // a command may have arrived after the last poll but before the flag was cleared
+        if(!session.mailbox.isEmpty()) {
+            schedule(session);
+        }
+    }
 
-        return rowMatch || colMatch || firstDiagMatch || secondDiagMatch;
+    private void archive(GameSession session) {
+        MoveJournal target = journal;
+        if(target == null) return;
+        try {
+            target.writeGame(session.board(), session.moveLog, session.winningPiece());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    // Queues an eviction on every idle session; returns how many were queued. Each session
+    // is closed and removed by its own mailbox, once the moves queued ahead of it are done.
+    public int evictIdleSessions() {
+        long now = System.nanoTime();
+        int queued = 0;
+        for(GameSession session: sessions.values()) {
+            if(now - session.lastActivityNanos > idleTimeoutNanos && session.mailbox.isEmpty()) {
+                session.mailbox.offer(MoveCommand.EVICT_IF_IDLE);
+                schedule(session);
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    public long createdSessions() {
+        return createdSessions.sum();
+    }
+
+    public long evictedSessions() {
+        return evictedSessions.sum();
+    }
+
+    public long moveLatencyPercentile(double percentile) {
+        return moveLatency.percentile(percentile);
+    }
+
+    public String stats() {
+        return "Active sessions: " + activeSessions() + ", Created: " + createdSessions() + ", Evicted: " + evictedSessions()
+                + ", Moves: " + moveLatency.count()
+                + ", Move latency p50/p99/p99.9 (us): " + moveLatencyPercentile(50) / 1000
+                + "/" + moveLatencyPercentile(99) / 1000 + "/" + moveLatencyPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        workers.shutdown();
+    }
 }
 
 class Main {
@@ -1,4 +1,42 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 
 enum VehicleType {
     CAR,
@@ -40,9 +78,17 @@ class Motorcycle extends Vehicle {
 }
 
 class ParkingSpot {
+    private static final AtomicReferenceFieldUpdater<ParkingSpot, Vehicle> PARKED_VEHICLE =
+            AtomicReferenceFieldUpdater.newUpdater(ParkingSpot.class, Vehicle.class, "parkedVehicle");
+
     public int spotNumber;
     public VehicleType vehicleType;
-    public Vehicle parkedVehicle;
+    public volatile Vehicle parkedVehicle;
+    // walking distance from each of the level's entrances; null until the level places them
+    public int[] entranceDistances;
+    // set by the level while it holds this spot for a vehicle parked here directly, so it can
+    // put the spot back in circulation once that vehicle leaves the same way
+    volatile Runnable onVacated;
 
     public ParkingSpot(int spotNumber, VehicleType vehicleType) {
         this.spotNumber = spotNumber;
@@ -54,15 +100,40 @@ class ParkingSpot {
     }
 
     public void parkVehicle(Vehicle vehicle) {
-        if(isAvailable() && vehicle.getType() == vehicleType) {
-            parkedVehicle = vehicle;
-        } else {
+        if(!tryPark(vehicle)) {
             throw new IllegalArgumentException("Invalid vehicle type or spot already occupied.");
         }
     }
 
+    // Claims the spot with a CAS, so of two gates racing for it exactly one wins
+    public boolean tryPark(Vehicle vehicle) {
+        return vehicle.getType() == vehicleType && tryOccupy(vehicle);
+    }
+
+    // The same claim without the type check, for levels that let vehicles overflow into other spot types
+    public boolean tryOccupy(Vehicle vehicle) {
+        return PARKED_VEHICLE.compareAndSet(this, null, vehicle);
+    }
+
     public void unparkVehicle() {
         parkedVehicle = null;
+        vacated();
+    }
+
+    public boolean tryUnpark(Vehicle vehicle) {
+        if(!vacate(vehicle)) return false;
+        vacated();
+        return true;
+    }
+
+    // The release the level itself uses; it keeps its own index, so nobody is told
+    boolean vacate(Vehicle vehicle) {
+        return PARKED_VEHICLE.compareAndSet(this, vehicle, null);
+    }
+
+    private void vacated() {
+        Runnable listener = onVacated;
+        if(listener != null) listener.run();
     }
 
     public VehicleType getVehicleType() {
@@ -76,109 +147,3033 @@ class ParkingSpot {
     public int getSpotNumber() {
         return spotNumber;
     }
-}
 
-class Level {
-    public int floor;
-    public List<ParkingSpot> parkingSpots;
+    public int getDistanceTo(int entrance) {
+        return entranceDistances[entrance];
+    }
+}
 
-    public Level(int floor, int numberOfSpots) {
-        this.floor = floor;
-        parkingSpots = new ArrayList<>(numberOfSpots);
+// Fixed-size bitset whose bits are flipped with CAS, so two threads can never both clear
+// (claim) the same bit.
+class AtomicBitSet {
+    private final AtomicLongArray words;
+    private final int size;
 
-        double spotsForBikes = 0.50;
-        double spotsForCars = 0.40;
+    public AtomicBitSet(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray(Math.max(1, (size + 63) >>> 6));
+    }
 
-        int numBikes = (int) (numberOfSpots * spotsForBikes);
-        int numCars = (int) (numberOfSpots * spotsForCars);
+    public boolean get(int bit) {
+        return (words.get(bit >>> 6) & (1L << bit)) != 0;
+    }
 
-        for(int i = 1; i <= numBikes; i++) {
-            parkingSpots.add(new ParkingSpot(i, VehicleType.MOTORCYCLE));
+    public void set(int bit) {
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        long current;
+        while(((current = words.get(word)) & mask) == 0) {
+            if(words.compareAndSet(word, current, current | mask)) return;
         }
+    }
 
-        for(int i = numBikes + 1; i <= numCars + numBikes; i++) {
-            parkingSpots.add(new ParkingSpot(i, VehicleType.CAR));
-        }
+    public void clear(int bit) {
+        tryClear(bit);
+    }
 
-        for(int i = numCars + numBikes + 1; i <= numberOfSpots; i++) {
-            parkingSpots.add(new ParkingSpot(i, VehicleType.TRUCK));
+    // Clears the bit; true only for the single caller that saw it set
+    public boolean tryClear(int bit) {
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        long current;
+        while(((current = words.get(word)) & mask) != 0) {
+            if(words.compareAndSet(word, current, current & ~mask)) return true;
         }
+        return false;
     }
 
-    public boolean parkVehicle(Vehicle vehicle) {
-        for(ParkingSpot spot: parkingSpots) {
-            if(spot.isAvailable() && spot.getVehicleType() == vehicle.getType()) {
-                spot.parkVehicle(vehicle);
-                return true;
+    public int nextSetBit(int fromBit) {
+        if(fromBit >= size) return -1;
+        int word = fromBit >>> 6;
+        long bits = words.get(word) & (-1L << fromBit);
+        while(true) {
+            if(bits != 0) {
+                int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return bit < size ? bit : -1;
             }
+            if(++word >= words.length()) return -1;
+            bits = words.get(word);
         }
-        return false;
     }
 
-    public boolean unparkVehicle(Vehicle vehicle) {
-        for(ParkingSpot spot: parkingSpots) {
-            if(!spot.isAvailable() && spot.getVehicleType() == vehicle.getType()) {
-                spot.unparkVehicle();
-                return true;
+    // Claims any set bit, scanning words from startWord and wrapping around; -1 if none is set
+    public int claimAny(int startWord) {
+        int wordCount = words.length();
+        for(int i = 0; i < wordCount; i++) {
+            int word = (startWord + i) % wordCount;
+            long current;
+            while((current = words.get(word)) != 0) {
+                long lowest = Long.lowestOneBit(current);
+                if(words.compareAndSet(word, current, current & ~lowest)) {
+                    return (word << 6) + Long.numberOfTrailingZeros(lowest);
+                }
             }
         }
-        return false;
+        return -1;
     }
 
-    public void displayAvailability() {
-        System.out.println("Level " + floor + "Availability: ");
-        for(ParkingSpot spot: parkingSpots) {
-            System.out.println("Spot " + spot.getSpotNumber() + ": " + (spot.isAvailable() ? "Available for: " : "Occupied by: ") + spot.getVehicleType());
+    public int wordCount() {
+        return words.length();
+    }
+}
+
+// Free spots of one type on one level. Spots are numbered 0..n-1 within their type
+// ("slots"); claim hands out a free slot and release returns it.
+abstract class FreeSpotIndex {
+    public static FreeSpotIndex create(int capacity, boolean concurrent) {
+        return concurrent ? new AtomicFreeSpotIndex(capacity) : new BitSetFreeSpotIndex(capacity);
+    }
+
+    public abstract int claim();
+
+    // Claims this particular slot; false if it was already taken
+    public abstract boolean claimSlot(int slot);
+
+    public abstract void release(int slot);
+
+    public abstract int size();
+
+    public abstract int capacity();
+}
+
+// Single-threaded index: claiming the first free slot is a next-set-bit lookup
+class BitSetFreeSpotIndex extends FreeSpotIndex {
+    private final BitSet free = new BitSet();
+    private final int capacity;
+    private int count;
+
+    public BitSetFreeSpotIndex(int capacity) {
+        this.capacity = capacity;
+        free.set(0, capacity);
+        count = capacity;
+    }
+
+    @Override
+    public int claim() {
+        int slot = free.nextSetBit(0);
+        if(slot >= 0) {
+            free.clear(slot);
+            count--;
+        }
+        return slot;
+    }
+
+    @Override
+    public boolean claimSlot(int slot) {
+        if(!free.get(slot)) return false;
+        free.clear(slot);
+        count--;
+        return true;
+    }
+
+    @Override
+    public void release(int slot) {
+        if(!free.get(slot)) {
+            free.set(slot);
+            count++;
         }
     }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
 }
 
-class ParkingLot {
-    public static ParkingLot instance;
-    public List<Level> levels;
+// Lock-free index for many gates: slots are claimed by CAS-clearing a bit, and each
+// thread starts scanning at its own word so concurrent gates rarely fight over one word.
+class AtomicFreeSpotIndex extends FreeSpotIndex {
+    private final AtomicBitSet free;
+    private final AtomicInteger count;
+    private final int capacity;
 
-    public ParkingLot() {
-        levels = new ArrayList<>();
+    public AtomicFreeSpotIndex(int capacity) {
+        this.capacity = capacity;
+        this.free = new AtomicBitSet(capacity);
+        for(int slot = 0; slot < capacity; slot++) {
+            free.set(slot);
+        }
+        this.count = new AtomicInteger(capacity);
     }
 
-    public static ParkingLot getInstance() {
-        if(instance == null) {
-            instance = new ParkingLot();
+    @Override
+    public int claim() {
+        if(count.get() == 0) return -1;
+        int slot = free.claimAny(ThreadLocalRandom.current().nextInt(free.wordCount()));
+        if(slot >= 0) count.decrementAndGet();
+        return slot;
+    }
+
+    @Override
+    public boolean claimSlot(int slot) {
+        if(!free.tryClear(slot)) return false;
+        count.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void release(int slot) {
+        if(!free.get(slot)) {
+            free.set(slot);
+            count.incrementAndGet();
         }
-        return instance;
     }
 
-    public void addLevel(Level level) {
-        levels.add(level);  
+    @Override
+    public int size() {
+        return count.get();
     }
 
-    public boolean parkVehicle(Vehicle vehicle) {
-        for (Level level: levels) {
-            if(level.parkVehicle(vehicle)) {
-                System.out.println("Vehicle parked successfully.");
-                return true;
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
+
+// Indexed binary min-heap of slots keyed by distance: peek is O(1), and add/remove of any
+// slot are O(log n) because every slot knows its position in the heap. Not thread-safe.
+class SpotHeap {
+    private final int[] distanceOfSlot;
+    private final int[] heap;
+    // heap index of each slot, -1 when the slot is not in the heap
+    private final int[] indexOfSlot;
+    private int size;
+
+    public SpotHeap(int[] distanceOfSlot) {
+        this.distanceOfSlot = distanceOfSlot;
+        this.heap = new int[distanceOfSlot.length];
+        this.indexOfSlot = new int[distanceOfSlot.length];
+        Arrays.fill(indexOfSlot, -1);
+    }
+
+    // Closest slot, or -1 when empty
+    public int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    public boolean contains(int slot) {
+        return indexOfSlot[slot] >= 0;
+    }
+
+    public void add(int slot) {
+        if(contains(slot)) return;
+        heap[size] = slot;
+        indexOfSlot[slot] = size;
+        siftUp(size++);
+    }
+
+    public void remove(int slot) {
+        int index = indexOfSlot[slot];
+        if(index < 0) return;
+        indexOfSlot[slot] = -1;
+        int last = heap[--size];
+        if(index == size) return;
+        heap[index] = last;
+        indexOfSlot[last] = index;
+        siftDown(index);
+        siftUp(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void siftUp(int index) {
+        int slot = heap[index];
+        while(index > 0) {
+            int parent = (index - 1) >>> 1;
+            if(!closer(slot, heap[parent])) break;
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(slot, index);
+    }
+
+    private void siftDown(int index) {
+        int slot = heap[index];
+        while(true) {
+            int child = 2 * index + 1;
+            if(child >= size) break;
+            if(child + 1 < size && closer(heap[child + 1], heap[child])) child++;
+            if(!closer(heap[child], slot)) break;
+            place(heap[child], index);
+            index = child;
+        }
+        place(slot, index);
+    }
+
+    // ties go to the lower slot so equal distances fill in spot order
+    private boolean closer(int a, int b) {
+        int byDistance = Integer.compare(distanceOfSlot[a], distanceOfSlot[b]);
+        return byDistance < 0 || (byDistance == 0 && a < b);
+    }
+
+    private void place(int slot, int index) {
+        heap[index] = slot;
+        indexOfSlot[slot] = index;
+    }
+}
+
+// Where a parked vehicle is: level index in the lot and position in that level's parkingSpots
+class SpotLocation {
+    public final int levelIndex;
+    public final int floor;
+    public final int position;
+    public final int spotNumber;
+
+    public SpotLocation(int levelIndex, int floor, int position, int spotNumber) {
+        this.levelIndex = levelIndex;
+        this.floor = floor;
+        this.position = position;
+        this.spotNumber = spotNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "Level " + floor + ", Spot " + spotNumber;
+    }
+}
+
+// Lot-wide free spot counts per VehicleType plus, per type, the set of levels that
+// still have room, so "is there room for a TRUCK" and "which level" are O(1)/next-set-bit.
+// Safe to update from many gates at once.
+class LotAvailability {
+    public static final int MAX_LEVELS = 4096;
+
+    private final AtomicIntegerArray freeSpots = new AtomicIntegerArray(VehicleType.values().length);
+    private final AtomicIntegerArray capacity = new AtomicIntegerArray(VehicleType.values().length);
+    private final AtomicBitSet[] levelsWithRoom = new AtomicBitSet[VehicleType.values().length];
+
+    public LotAvailability() {
+        for(int i = 0; i < levelsWithRoom.length; i++) {
+            levelsWithRoom[i] = new AtomicBitSet(MAX_LEVELS);
+        }
+    }
+
+    void update(Level level, int levelIndex, VehicleType type, int delta) {
+        freeSpots.addAndGet(type.ordinal(), delta);
+        AtomicBitSet room = levelsWithRoom[type.ordinal()];
+        if(level.getAvailableSpots(type) > 0) {
+            room.set(levelIndex);
+        } else {
+            room.clear(levelIndex);
+            // a spot freed between the read and the clear must not leave the level hidden
+            if(level.getAvailableSpots(type) > 0) room.set(levelIndex);
+        }
+    }
+
+    void addCapacity(VehicleType type, int spots) {
+        capacity.addAndGet(type.ordinal(), spots);
+    }
+
+    public boolean hasRoomFor(VehicleType type) {
+        return freeSpots.get(type.ordinal()) > 0;
+    }
+
+    public int capacity(VehicleType type) {
+        return capacity.get(type.ordinal());
+    }
+
+    public int occupiedSpots(VehicleType type) {
+        return capacity(type) - freeSpots(type);
+    }
+
+    public int freeSpots(VehicleType type) {
+        return freeSpots.get(type.ordinal());
+    }
+
+    public int nextLevelWithRoom(VehicleType type, int fromLevel) {
+        return levelsWithRoom[type.ordinal()].nextSetBit(fromLevel);
+    }
+}
+
+// Hands out int ids for parked vehicles so compact spot storage can hold an int instead of
+// a reference. An id is [generation:8][index + 1:24]: the generation moves on every time an
+// index is reused, so an id read just before a concurrent unpark/park never matches the new
+// occupant. Freed indexes go on a lock-free stack, so memory follows the number of parked
+// vehicles, not the number of spots.
+class VehicleRegistry {
+    private static final int INDEX_BITS = 24;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int MAX_INDEXES = INDEX_MASK - 1;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private volatile AtomicReferenceArray<Vehicle>[] vehicles = newVehiclePages(0);
+    // per index: [generation:8][next free index + 1:24]
+    private volatile AtomicIntegerArray[] links = new AtomicIntegerArray[0];
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    // free stack head: [pop count:32][index + 1:32], so a stale head never passes the CAS
+    private final AtomicLong freeHead = new AtomicLong();
+
+    public int register(Vehicle vehicle) {
+        int index = popFree();
+        if(index < 0) {
+            index = nextIndex.getAndIncrement();
+            if(index >= MAX_INDEXES) {
+                throw new IllegalStateException("Too many vehicles registered at once.");
             }
+            ensurePage(index >>> PAGE_BITS);
         }
-        System.out.println("Could not park vehicle.");
-        return false;
+        vehicles[index >>> PAGE_BITS].set(index & (PAGE_SIZE - 1), vehicle);
+        int generation = links[index >>> PAGE_BITS].get(index & (PAGE_SIZE - 1)) >>> INDEX_BITS;
+        return (generation << INDEX_BITS) | (index + 1);
     }
 
-    public boolean unparkVehicle(Vehicle vehicle) {
-        for(Level level: levels) {
-            if(level.unparkVehicle(vehicle)) {
-                return true;
+    // The vehicle behind the id, or null once the id has been released
+    public Vehicle get(int id) {
+        int index = (id & INDEX_MASK) - 1;
+        AtomicIntegerArray[] pages = links;
+        if(index < 0 || (index >>> PAGE_BITS) >= pages.length) return null;
+        AtomicIntegerArray page = pages[index >>> PAGE_BITS];
+        if((page.get(index & (PAGE_SIZE - 1)) >>> INDEX_BITS) != (id >>> INDEX_BITS)) return null;
+        Vehicle vehicle = vehicles[index >>> PAGE_BITS].get(index & (PAGE_SIZE - 1));
+        // the index may have been released and reissued while it was read
+        return (page.get(index & (PAGE_SIZE - 1)) >>> INDEX_BITS) == (id >>> INDEX_BITS) ? vehicle : null;
+    }
+
+    public void release(int id) {
+        int index = (id & INDEX_MASK) - 1;
+        vehicles[index >>> PAGE_BITS].set(index & (PAGE_SIZE - 1), null);
+        AtomicIntegerArray page = links[index >>> PAGE_BITS];
+        int generation = ((id >>> INDEX_BITS) + 1) & 0xFF;
+        while(true) {
+            long head = freeHead.get();
+            page.set(index & (PAGE_SIZE - 1), (generation << INDEX_BITS) | (int) head);
+            if(freeHead.compareAndSet(head, (head & 0xFFFFFFFF00000000L) | (index + 1))) return;
+        }
+    }
+
+    private int popFree() {
+        while(true) {
+            long head = freeHead.get();
+            int index = (int) head - 1;
+            if(index < 0) return -1;
+            int next = links[index >>> PAGE_BITS].get(index & (PAGE_SIZE - 1)) & INDEX_MASK;
+            if(freeHead.compareAndSet(head, ((head >>> 32) + 1) << 32 | next)) return index;
+        }
+    }
+
+    private void ensurePage(int page) {
+        if(page < links.length) return;
+        synchronized(this) {
+            if(page < links.length) return;
+            AtomicReferenceArray<Vehicle>[] grownVehicles = newVehiclePages(page + 1);
+            AtomicIntegerArray[] grownLinks = Arrays.copyOf(links, page + 1);
+            System.arraycopy(vehicles, 0, grownVehicles, 0, vehicles.length);
+            for(int i = links.length; i <= page; i++) {
+                grownVehicles[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+                grownLinks[i] = new AtomicIntegerArray(PAGE_SIZE);
             }
+            vehicles = grownVehicles;
+            links = grownLinks;
         }
-        return false;
     }
 
-    public void displayAvailability() {
-        for (Level level: levels) {
-            level.displayAvailability();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static AtomicReferenceArray<Vehicle>[] newVehiclePages(int pages) {
+        return (AtomicReferenceArray<Vehicle>[]) new AtomicReferenceArray[pages];
+    }
+}
+
+// Storage for a level's spots, by position: type, occupant and entry time
+abstract class SpotStore {
+    public abstract void add(int spotNumber, VehicleType type);
+
+    public abstract int size();
+
+    public abstract VehicleType typeAt(int position);
+
+    // Only for free spots that no gate can reach while they change type
+    public abstract void setType(int position, VehicleType type);
+
+    public abstract int spotNumberAt(int position);
+
+    public abstract Vehicle vehicleAt(int position);
+
+    // CAS claim of an empty spot; the level has already picked a spot type the vehicle may use
+    public abstract boolean tryPark(int position, Vehicle vehicle);
+
+    // CAS release, only if this very vehicle is parked there
+    public abstract boolean tryUnpark(int position, Vehicle vehicle);
+
+    // Runs listener when the spot is emptied other than through tryUnpark; null stops it
+    public abstract void onVacated(int position, Runnable listener);
+
+    public abstract long parkedSince(int position);
+
+    public abstract void setParkedSince(int position, long millis);
+
+    public abstract void setEntranceDistances(int position, int[] distances);
+
+    // The spots as ParkingSpot objects, for callers that work with those
+    public abstract List<ParkingSpot> asList();
+}
+
+// One ParkingSpot object per spot
+class ObjectSpotStore extends SpotStore {
+    private final List<ParkingSpot> spots;
+    private final long[] parkedSince;
+
+    public ObjectSpotStore(int capacity) {
+        spots = new ArrayList<>(capacity);
+        parkedSince = new long[capacity];
+    }
+
+    @Override
+    public void add(int spotNumber, VehicleType type) {
+        spots.add(new ParkingSpot(spotNumber, type));
+    }
+
+    @Override
+    public int size() {
+        return spots.size();
+    }
+
+    @Override
+    public VehicleType typeAt(int position) {
+        return spots.get(position).getVehicleType();
+    }
+
+    @Override
+    public void setType(int position, VehicleType type) {
+        spots.get(position).vehicleType = type;
+    }
+
+    @Override
+    public int spotNumberAt(int position) {
+        return spots.get(position).getSpotNumber();
+    }
+
+    @Override
+    public Vehicle vehicleAt(int position) {
+        return spots.get(position).getParkedVehicle();
+    }
+
+    @Override
+    public boolean tryPark(int position, Vehicle vehicle) {
+        return spots.get(position).tryOccupy(vehicle);
+    }
+
+    @Override
+    public boolean tryUnpark(int position, Vehicle vehicle) {
+        return spots.get(position).vacate(vehicle);
+    }
+
+    @Override
+    public void onVacated(int position, Runnable listener) {
+        spots.get(position).onVacated = listener;
+    }
+
+    @Override
+    public long parkedSince(int position) {
+        return parkedSince[position];
+    }
+
+    @Override
+    public void setParkedSince(int position, long millis) {
+        parkedSince[position] = millis;
+    }
+
+    @Override
+    public void setEntranceDistances(int position, int[] distances) {
+        spots.get(position).entranceDistances = distances;
+    }
+
+    @Override
+    public List<ParkingSpot> asList() {
+        return spots;
+    }
+}
+
+// Parallel primitive arrays: a type byte, an occupant id and an entry time in seconds per
+// spot, about 9 bytes against ~40 for a ParkingSpot and its list slot. Spot numbers are
+// implicit (position + 1) and the occupants themselves live in a VehicleRegistry.
+// Entrance distances are only kept in the level's heaps.
+class CompactSpotStore extends SpotStore {
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    private final byte[] types;
+    private final AtomicIntegerArray vehicleIds;
+    // seconds since epochMillis; whole seconds are plenty for billing by the minute
+    private final int[] parkedSinceSeconds;
+    private final long epochMillis = System.currentTimeMillis();
+    private final VehicleRegistry registry;
+    private int size;
+
+    public CompactSpotStore(int capacity, VehicleRegistry registry) {
+        types = new byte[capacity];
+        vehicleIds = new AtomicIntegerArray(capacity);
+        parkedSinceSeconds = new int[capacity];
+        this.registry = registry;
+    }
+
+    @Override
+    public void add(int spotNumber, VehicleType type) {
+        if(spotNumber != size + 1) {
+            throw new IllegalArgumentException("Compact storage numbers spots 1..n in order.");
         }
+        types[size++] = (byte) type.ordinal();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public VehicleType typeAt(int position) {
+        return TYPES[types[position]];
+    }
+
+    @Override
+    public void setType(int position, VehicleType type) {
+        types[position] = (byte) type.ordinal();
+    }
+
+    @Override
+    public int spotNumberAt(int position) {
+        return position + 1;
+    }
+
+    @Override
+    public Vehicle vehicleAt(int position) {
+        int id = vehicleIds.get(position);
+        return id == 0 ? null : registry.get(id);
+    }
+
+    @Override
+    public boolean tryPark(int position, Vehicle vehicle) {
+        if(vehicleIds.get(position) != 0) return false;
+        int id = registry.register(vehicle);
+        if(vehicleIds.compareAndSet(position, 0, id)) return true;
+        registry.release(id);
+        return false;
+    }
+
+    @Override
+    public boolean tryUnpark(int position, Vehicle vehicle) {
+        int id = vehicleIds.get(position);
+        if(id == 0 || registry.get(id) != vehicle || !vehicleIds.compareAndSet(position, id, 0)) return false;
+        registry.release(id);
+        return true;
+    }
+
+    // The ParkingSpots handed out are copies, so nothing can empty a spot behind the level's back
+    @Override
+    public void onVacated(int position, Runnable listener) {
+    }
+
+    @Override
+    public long parkedSince(int position) {
+        return epochMillis + parkedSinceSeconds[position] * 1000L;
+    }
+
+    @Override
+    public void setParkedSince(int position, long millis) {
+        parkedSinceSeconds[position] = (int) Math.floorDiv(millis - epochMillis, 1000L);
+    }
+
+    @Override
+    public void setEntranceDistances(int position, int[] distances) {
+    }
+
+    // Read-only copies: changing them does not touch the level
+    @Override
+    public List<ParkingSpot> asList() {
+        return new AbstractList<ParkingSpot>() {
+            @Override
+            public ParkingSpot get(int position) {
+                ParkingSpot copy = new ParkingSpot(spotNumberAt(position), typeAt(position));
+                copy.parkedVehicle = vehicleAt(position);
+                return copy;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 }
 
+class Level {
+    public int floor;
+    // for compact levels a read-only view of copies; use vehicleAt and friends on hot paths
+    public List<ParkingSpot> parkingSpots;
+    private final SpotStore spots;
+    private final Map<VehicleType, FreeSpotIndex> freeSpots = new EnumMap<>(VehicleType.class);
+    // positions in parkingSpots of the spots of each type, in slot order
+    private final Map<VehicleType, int[]> spotsByType = new EnumMap<>(VehicleType.class);
+    // slot of each spot within its type's FreeSpotIndex, by position in parkingSpots. Flexible
+    // spots hold -(k + 1) instead: flexible spot k has slot fixedSpots[type] + k in every
+    // type's index, and only the slot of the type it currently has is ever free.
+    private int[] slotOfSpot;
+    private int[] flexiblePositions = new int[0];
+    private final int[] fixedSpots = new int[VehicleType.values().length];
+    // spots per type right now, flexible spots counted under their current type
+    private final AtomicIntegerArray capacity = new AtomicIntegerArray(VehicleType.values().length);
+    // null for compact levels, which build locations on demand instead of caching one per spot
+    private SpotLocation[] locations;
+    private LotAvailability availability;
+    private int levelIndex;
+    volatile ParkingJournal journal;
+    // per type, one heap of free slots per entrance (nearest first); null until entrances are placed.
+    // All heaps of a type are guarded by that type's lock, so gates of different types never contend.
+    private volatile Map<VehicleType, SpotHeap[]> nearestFree;
+    private final Map<VehicleType, Object> heapLocks = new EnumMap<>(VehicleType.class);
+    // positions whose slot is held because a vehicle was parked there through ParkingSpot,
+    // behind the index's back; the slot is released when that vehicle leaves
+    private final Set<Integer> strays = ConcurrentHashMap.newKeySet();
+
+    public Level(int floor, int numberOfSpots) {
+        this(floor, numberOfSpots, false);
+    }
+
+    // concurrent levels use lock-free per-type indexes so many gates can allocate at once
+    public Level(int floor, int numberOfSpots, boolean concurrent) {
+        this(floor, numberOfSpots, concurrent, false);
+    }
+
+    // compact levels keep spot state in primitive arrays (see CompactSpotStore) for very large lots
+    public Level(int floor, int numberOfSpots, boolean concurrent, boolean compact) {
+        this(floor, numberOfSpots, 0.50, 0.40, concurrent, compact);
+    }
+
+    // spotsForBikes and spotsForCars are shares of numberOfSpots; the rest are truck spots
+    public Level(int floor, int numberOfSpots, double spotsForBikes, double spotsForCars, boolean concurrent, boolean compact) {
+        if(spotsForBikes < 0 || spotsForCars < 0 || spotsForBikes + spotsForCars > 1) {
+            throw new IllegalArgumentException("Spot shares must be non-negative and add up to at most 1.");
+        }
+        this.floor = floor;
+        spots = compact ? new CompactSpotStore(numberOfSpots, new VehicleRegistry()) : new ObjectSpotStore(numberOfSpots);
+
+        int numBikes = (int) (numberOfSpots * spotsForBikes);
+        int numCars = (int) (numberOfSpots * spotsForCars);
+
+        for(int i = 1; i <= numBikes; i++) {
+            spots.add(i, VehicleType.MOTORCYCLE);
+        }
+
+        for(int i = numBikes + 1; i <= numCars + numBikes; i++) {
+            spots.add(i, VehicleType.CAR);
+        }
+
+        for(int i = numCars + numBikes + 1; i <= numberOfSpots; i++) {
+            spots.add(i, VehicleType.TRUCK);
+        }
+
+        for(VehicleType type: VehicleType.values()) {
+            heapLocks.put(type, new Object());
+        }
+        parkingSpots = spots.asList();
+        locations = compact ? null : new SpotLocation[numberOfSpots];
+        buildIndexes(concurrent);
+    }
+
+    // Rebuilds the per-type indexes from the spots, keeping any vehicles already parked
+    private void buildIndexes(boolean concurrent) {
+        slotOfSpot = new int[spots.size()];
+        for(int k = 0; k < flexiblePositions.length; k++) {
+            slotOfSpot[flexiblePositions[k]] = -(k + 1);
+        }
+        for(VehicleType type: VehicleType.values()) {
+            int[] positions = new int[spots.size()];
+            int count = 0;
+            for(int i = 0; i < spots.size(); i++) {
+                if(slotOfSpot[i] >= 0 && spots.typeAt(i) == type) {
+                    slotOfSpot[i] = count;
+                    positions[count++] = i;
+                }
+            }
+            fixedSpots[type.ordinal()] = count;
+            for(int position: flexiblePositions) {
+                positions[count++] = position;
+            }
+            FreeSpotIndex index = FreeSpotIndex.create(count, concurrent);
+            int spotsOfType = 0;
+            for(int slot = 0; slot < count; slot++) {
+                boolean ofType = spots.typeAt(positions[slot]) == type;
+                if(ofType) spotsOfType++;
+                if(!ofType || spots.vehicleAt(positions[slot]) != null) index.claimSlot(slot);
+            }
+            capacity.set(type.ordinal(), spotsOfType);
+            spotsByType.put(type, Arrays.copyOf(positions, count));
+            freeSpots.put(type, index);
+        }
+    }
+
+    // Lets these spots change type later (see retypeFlexibleSpot); only before the level joins
+    // a lot and before entrances are placed, since both build on the slot layout
+    public synchronized void markFlexible(int... positions) {
+        if(availability != null || nearestFree != null) {
+            throw new IllegalStateException("Flexible spots must be marked before entrances are placed and the level is added to a lot.");
+        }
+        Set<Integer> flexible = new TreeSet<>();
+        for(int position: flexiblePositions) flexible.add(position);
+        for(int position: positions) {
+            if(position < 0 || position >= spots.size()) {
+                throw new IllegalArgumentException("No spot at position " + position);
+            }
+            flexible.add(position);
+        }
+        flexiblePositions = flexible.stream().mapToInt(Integer::intValue).toArray();
+        buildIndexes(freeSpots.get(VehicleType.CAR) instanceof AtomicFreeSpotIndex);
+    }
+
+    private int slotFor(VehicleType type, int position) {
+        int slot = slotOfSpot[position];
+        return slot >= 0 ? slot : fixedSpots[type.ordinal()] - slot - 1;
+    }
+
+    void attach(LotAvailability availability, int levelIndex, boolean concurrent) {
+        if(concurrent && !(freeSpots.get(VehicleType.CAR) instanceof AtomicFreeSpotIndex)) {
+            buildIndexes(true);
+        }
+        this.availability = availability;
+        this.levelIndex = levelIndex;
+        if(locations != null) Arrays.fill(locations, null);
+        for(VehicleType type: VehicleType.values()) {
+            availability.addCapacity(type, getCapacity(type));
+            availability.update(this, levelIndex, type, freeSpots.get(type).size());
+        }
+    }
+
+    // Entrances along the row of spots, each given by the spot number it opens next to;
+    // a spot's distance to an entrance is how many spots lie between them
+    public void placeEntrances(int... entranceSpotNumbers) {
+        int[][] distances = new int[spots.size()][entranceSpotNumbers.length];
+        for(int position = 0; position < spots.size(); position++) {
+            for(int entrance = 0; entrance < entranceSpotNumbers.length; entrance++) {
+                distances[position][entrance] = Math.abs(spots.spotNumberAt(position) - entranceSpotNumbers[entrance]);
+            }
+        }
+        setEntranceDistances(distances);
+    }
+
+    // distances[position][entrance] for every spot; builds the per-entrance heaps of free spots
+    public synchronized void setEntranceDistances(int[][] distances) {
+        int entrances = distances.length == 0 ? 0 : distances[0].length;
+        for(int position = 0; position < spots.size(); position++) {
+            spots.setEntranceDistances(position, distances[position].clone());
+        }
+        Map<VehicleType, SpotHeap[]> heaps = new EnumMap<>(VehicleType.class);
+        for(VehicleType type: VehicleType.values()) {
+            int[] positions = spotsByType.get(type);
+            SpotHeap[] byEntrance = new SpotHeap[entrances];
+            for(int entrance = 0; entrance < entrances; entrance++) {
+                int[] distanceOfSlot = new int[positions.length];
+                for(int slot = 0; slot < positions.length; slot++) {
+                    distanceOfSlot[slot] = distances[positions[slot]][entrance];
+                }
+                byEntrance[entrance] = new SpotHeap(distanceOfSlot);
+                for(int slot = 0; slot < positions.length; slot++) {
+                    if(spots.typeAt(positions[slot]) == type && spots.vehicleAt(positions[slot]) == null) byEntrance[entrance].add(slot);
+                }
+            }
+            heaps.put(type, byEntrance);
+        }
+        nearestFree = heaps;
+    }
+
+    public int getEntranceCount() {
+        Map<VehicleType, SpotHeap[]> heaps = nearestFree;
+        return heaps == null ? 0 : heaps.get(VehicleType.CAR).length;
+    }
+
+    public boolean parkVehicle(Vehicle vehicle) {
+        return occupySpot(vehicle) >= 0;
+    }
+
+    // Parks the vehicle in the first free spot of its type; returns the spot's position or -1
+    public int occupySpot(Vehicle vehicle) {
+        return occupySpot(vehicle, vehicle.getType(), -1);
+    }
+
+    // Parks the vehicle in the free spot of its type closest to the entrance; levels without
+    // entrances (or an entrance of -1) fall back to the first free spot
+    public int occupySpot(Vehicle vehicle, int entrance) {
+        return occupySpot(vehicle, vehicle.getType(), entrance);
+    }
+
+    // As above, but in a spot of spotType, which overflow rules may allow for other vehicle types
+    public int occupySpot(Vehicle vehicle, VehicleType type, int entrance) {
+        while(true) {
+            int slot = claimSlot(type, entrance);
+            if(slot < 0) return -1;
+            int position = parkInSlot(vehicle, type, slot);
+            // -1 means the spot was taken behind the index's back; it is set aside, try the next one
+            if(position >= 0) return position;
+        }
+    }
+
+    // Claims the free slot of type nearest the entrance, or any free one; -1 if none is left
+    private int claimSlot(VehicleType type, int entrance) {
+        Map<VehicleType, SpotHeap[]> heaps = nearestFree;
+        if(entrance < 0 || heaps == null || entrance >= heaps.get(type).length) {
+            return freeSpots.get(type).claim();
+        }
+        SpotHeap[] byEntrance = heaps.get(type);
+        FreeSpotIndex index = freeSpots.get(type);
+        int slot;
+        synchronized(heapLocks.get(type)) {
+            while(true) {
+                slot = byEntrance[entrance].peek();
+                if(slot < 0) return -1;
+                for(SpotHeap heap: byEntrance) {
+                    heap.remove(slot);
+                }
+                // slots handed out by the lock-free claim() are only dropped from the heaps here
+                if(index.claimSlot(slot)) break;
+            }
+        }
+        return slot;
+    }
+
+    private int parkInSlot(Vehicle vehicle, VehicleType type, int slot) {
+        int position = spotsByType.get(type)[slot];
+        if(!spots.tryPark(position, vehicle)) {
+            holdStray(type, position);
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        spots.setParkedSince(position, now);
+        // logged while this gate still owns the spot, so its records stay in order per spot
+        ParkingJournal log = journal;
+        if(log != null) log.logPark(levelIndex, position, vehicle, now);
+        if(availability != null) availability.update(this, levelIndex, type, -1);
+        return position;
+    }
+
+    // Frees the spot at position if, and only if, this vehicle is parked there
+    public boolean vacateSpot(int position, Vehicle vehicle) {
+        Vehicle parked = spots.vehicleAt(position);
+        if(parked == null || !parked.licensePlate.equals(vehicle.licensePlate) || !spots.tryUnpark(position, parked)) {
+            return false;
+        }
+        VehicleType type = spots.typeAt(position);
+        if(strays.remove(position)) spots.onVacated(position, null);
+        ParkingJournal log = journal;
+        if(log != null) log.logUnpark(levelIndex, position);
+        // the spot is empty before its slot is published, so the next claimer always finds it free
+        releaseSlot(type, slotFor(type, position));
+        if(availability != null) availability.update(this, levelIndex, type, 1);
+        return true;
+    }
+
+    // The claimed slot's spot was taken directly through ParkingSpot. The slot stays claimed,
+    // so no gate tries the spot again, until the spot is vacated through ParkingSpot.
+    private void holdStray(VehicleType type, int position) {
+        if(availability != null) availability.update(this, levelIndex, type, -1);
+        strays.add(position);
+        spots.onVacated(position, () -> releaseStray(position));
+        // the vehicle may have left before the listener was in place
+        if(spots.vehicleAt(position) == null) releaseStray(position);
+    }
+
+    private void releaseStray(int position) {
+        if(!strays.remove(position)) return;
+        spots.onVacated(position, null);
+        VehicleType type = spots.typeAt(position);
+        releaseSlot(type, slotFor(type, position));
+        if(availability != null) availability.update(this, levelIndex, type, 1);
+    }
+
+    private void releaseSlot(VehicleType type, int slot) {
+        freeSpots.get(type).release(slot);
+        Map<VehicleType, SpotHeap[]> heaps = nearestFree;
+        if(heaps == null) return;
+        synchronized(heapLocks.get(type)) {
+            for(SpotHeap heap: heaps.get(type)) {
+                heap.add(slot);
+            }
+        }
+    }
+
+    // Recovery only: puts the vehicle back in this exact spot without logging it.
+    // Returns whoever was in the spot before, or null.
+    Vehicle restoreSpot(int position, Vehicle vehicle, long parkedSinceMillis) {
+        Vehicle previous = clearSpot(position);
+        if(spots.tryPark(position, vehicle)) {
+            VehicleType type = spots.typeAt(position);
+            spots.setParkedSince(position, parkedSinceMillis);
+            freeSpots.get(type).claimSlot(slotFor(type, position));
+            if(availability != null) availability.update(this, levelIndex, type, -1);
+        }
+        return previous;
+    }
+
+    // Recovery only: empties the spot without logging it; returns the vehicle that was there
+    Vehicle clearSpot(int position) {
+        Vehicle parked = spots.vehicleAt(position);
+        if(parked == null || !spots.tryUnpark(position, parked)) return null;
+        if(strays.remove(position)) spots.onVacated(position, null);
+        VehicleType type = spots.typeAt(position);
+        releaseSlot(type, slotFor(type, position));
+        if(availability != null) availability.update(this, levelIndex, type, 1);
+        return parked;
+    }
+
+    // Moves a free flexible spot to another type; false if it is in use or mid-claim. The spot
+    // is taken out of circulation by claiming its slot the way a gate would, so gates never
+    // wait on a retype and can never park in a spot while its type changes.
+    public boolean retypeFlexibleSpot(int flexibleIndex, VehicleType newType) {
+        ParkingJournal log = journal;
+        if(log != null) log.checkHealthy();
+        int position = flexiblePositions[flexibleIndex];
+        VehicleType oldType = spots.typeAt(position);
+        if(oldType == newType || !freeSpots.get(oldType).claimSlot(fixedSpots[oldType.ordinal()] + flexibleIndex)) {
+            return false;
+        }
+        if(spots.vehicleAt(position) != null) {
+            holdStray(oldType, position);
+            return false;
+        }
+        spots.setType(position, newType);
+        capacity.decrementAndGet(oldType.ordinal());
+        capacity.incrementAndGet(newType.ordinal());
+        if(availability != null) {
+            availability.addCapacity(oldType, -1);
+            availability.update(this, levelIndex, oldType, -1);
+        }
+        if(log != null) log.logRetype(levelIndex, position, newType);
+        releaseSlot(newType, fixedSpots[newType.ordinal()] + flexibleIndex);
+        if(availability != null) {
+            availability.addCapacity(newType, 1);
+            availability.update(this, levelIndex, newType, 1);
+        }
+        return true;
+    }
+
+    // Recovery only: gives a flexible spot this type, whether or not it is occupied
+    void restoreSpotType(int position, VehicleType type) {
+        if(slotOfSpot[position] >= 0) {
+            throw new IllegalStateException("Spot " + spots.spotNumberAt(position) + " on level " + floor + " is not flexible.");
+        }
+        VehicleType oldType = spots.typeAt(position);
+        if(oldType == type) return;
+        boolean free = spots.vehicleAt(position) == null;
+        if(free) freeSpots.get(oldType).claimSlot(slotFor(oldType, position));
+        spots.setType(position, type);
+        capacity.decrementAndGet(oldType.ordinal());
+        capacity.incrementAndGet(type.ordinal());
+        if(free) releaseSlot(type, slotFor(type, position));
+        if(availability != null) {
+            availability.addCapacity(oldType, -1);
+            availability.update(this, levelIndex, oldType, free ? -1 : 0);
+            availability.addCapacity(type, 1);
+            availability.update(this, levelIndex, type, free ? 1 : 0);
+        }
+    }
+
+    public int flexibleSpotCount() {
+        return flexiblePositions.length;
+    }
+
+    public int flexiblePosition(int flexibleIndex) {
+        return flexiblePositions[flexibleIndex];
+    }
+
+    // Level-local fallback that searches this level only; ParkingLot goes through its plate index instead
+    public boolean unparkVehicle(Vehicle vehicle) {
+        for(int position: spotsByType.get(vehicle.getType())) {
+            if(vacateSpot(position, vehicle)) {
+                return true;
+            }
+        }
+        // vehicles that overflowed sit in spots of another type
+        for(int position = 0; position < spots.size(); position++) {
+            if(spots.typeAt(position) != vehicle.getType() && vacateSpot(position, vehicle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Entry time of whoever is parked at position; only meaningful while the spot is occupied
+    public long parkedSince(int position) {
+        return spots.parkedSince(position);
+    }
+
+    public int spotCount() {
+        return spots.size();
+    }
+
+    public VehicleType spotTypeAt(int position) {
+        return spots.typeAt(position);
+    }
+
+    public int spotNumberAt(int position) {
+        return spots.spotNumberAt(position);
+    }
+
+    public Vehicle vehicleAt(int position) {
+        return spots.vehicleAt(position);
+    }
+
+    // Locations are immutable, so each spot's is created once and shared by every vehicle parked there
+    public SpotLocation locationOf(int position) {
+        if(locations == null) {
+            return new SpotLocation(levelIndex, floor, position, spots.spotNumberAt(position));
+        }
+        SpotLocation location = locations[position];
+        if(location == null) {
+            location = new SpotLocation(levelIndex, floor, position, spots.spotNumberAt(position));
+            locations[position] = location;
+        }
+        return location;
+    }
+
+    public int getAvailableSpots(VehicleType type) {
+        return freeSpots.get(type).size();
+    }
+
+    public int getOccupiedSpots(VehicleType type) {
+        return capacity.get(type.ordinal()) - freeSpots.get(type).size();
+    }
+
+    public int getCapacity(VehicleType type) {
+        return capacity.get(type.ordinal());
+    }
+
+    public void displayAvailability() {
+        System.out.println("Level " + floor + "Availability: ");
+        for(int position = 0; position < spots.size(); position++) {
+            System.out.println("Spot " + spots.spotNumberAt(position) + ": " + (spots.vehicleAt(position) == null ? "Available for: " : "Occupied by: ") + spots.typeAt(position));
+        }
+    }
+}
+
+// Lock-free latency histogram with 8 linear sub-buckets per power of two (~12% precision)
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BUCKET_BITS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    public long count() {
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++) total += counts.get(i);
+        return total;
+    }
+
+    // The counts recorded so far, to be compared against later with since()
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for(int i = 0; i < counts.length(); i++) copy.counts.set(i, counts.get(i));
+        return copy;
+    }
+
+    // Only what was recorded after earlier, a copy of this histogram, e.g. during one run
+    public LatencyHistogram since(LatencyHistogram earlier) {
+        LatencyHistogram window = new LatencyHistogram();
+        for(int i = 0; i < counts.length(); i++) window.counts.set(i, counts.get(i) - earlier.counts.get(i));
+        return window;
+    }
+
+    // Lower bound of the bucket holding the given percentile (0-100), in nanos
+    public long percentile(double percentile) {
+        long total = count();
+        if(total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if(seen >= target) return lowerBound(i);
+        }
+        return lowerBound(counts.length() - 1);
+    }
+
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | mantissa;
+    }
+
+    private static long lowerBound(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS | mantissa) << (exponent - SUB_BUCKET_BITS);
+    }
+}
+
+// Entry/exit latency and outcome counters, updated on every park and unpark call
+class ParkingMetrics {
+    public final LatencyHistogram entryLatency = new LatencyHistogram();
+    public final LatencyHistogram exitLatency = new LatencyHistogram();
+    private final LongAdder parked = new LongAdder();
+    private final LongAdder unparked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    // arrivals that found every spot of their own type taken, by vehicle type
+    private final LongAdder[] misses = new LongAdder[VehicleType.values().length];
+
+    public ParkingMetrics() {
+        for(int i = 0; i < misses.length; i++) {
+            misses[i] = new LongAdder();
+        }
+    }
+
+    void recordMiss(VehicleType type) {
+        misses[type.ordinal()].increment();
+    }
+
+    public long misses(VehicleType type) {
+        return misses[type.ordinal()].sum();
+    }
+
+    void recordEntry(long nanos, boolean accepted) {
+        entryLatency.record(nanos);
+        if(accepted) parked.increment();
+        else rejected.increment();
+    }
+
+    void recordExit(long nanos) {
+        exitLatency.record(nanos);
+        unparked.increment();
+    }
+
+    public long parkedCount() {
+        return parked.sum();
+    }
+
+    public long unparkedCount() {
+        return unparked.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    // Share of entry attempts that were turned away
+    public double rejectionRate() {
+        long rejections = rejected.sum();
+        long attempts = parked.sum() + rejections;
+        return attempts == 0 ? 0 : (double) rejections / attempts;
+    }
+}
+
+enum ParkingEventType {
+    PARKED,
+    UNPARKED,
+    REJECTED
+}
+
+class ParkingEvent {
+    public final ParkingEventType type;
+    public final String licensePlate;
+    public final VehicleType vehicleType;
+    // null for rejections
+    public final SpotLocation location;
+    public final long timestampMillis;
+
+    public ParkingEvent(ParkingEventType type, Vehicle vehicle, SpotLocation location) {
+        this.type = type;
+        this.licensePlate = vehicle.licensePlate;
+        this.vehicleType = vehicle.getType();
+        this.location = location;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + licensePlate + " (" + vehicleType + ")" + (location == null ? "" : " at " + location);
+    }
+}
+
+// Non-blocking park/unpark/reject feed for dashboards. Each subscriber gets its own bounded
+// buffer; events for a subscriber that falls behind are dropped and counted rather than
+// ever blocking a gate. Nothing is allocated while nobody is subscribed.
+class ParkingEventStream implements AutoCloseable {
+    private final SubmissionPublisher<ParkingEvent> publisher;
+    private final LongAdder dropped = new LongAdder();
+
+    public ParkingEventStream() {
+        this(Flow.defaultBufferSize());
+    }
+
+    public ParkingEventStream(int bufferPerSubscriber) {
+        this.publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferPerSubscriber);
+    }
+
+    public void subscribe(Flow.Subscriber<? super ParkingEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    void publish(ParkingEventType type, Vehicle vehicle, SpotLocation location) {
+        if(!publisher.hasSubscribers()) return;
+        publisher.offer(new ParkingEvent(type, vehicle, location), (subscriber, event) -> {
+            dropped.increment();
+            return false;
+        });
+    }
+
+    public long droppedEvents() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+}
+
+// One completed stay, from entry to exit; amountCents is filled in when it is settled
+class ParkingSession {
+    public final String licensePlate;
+    public final VehicleType vehicleType;
+    public final SpotLocation location;
+    public final long entryMillis;
+    public final long exitMillis;
+    public long amountCents = -1;
+
+    public ParkingSession(Vehicle vehicle, SpotLocation location, long entryMillis, long exitMillis) {
+        this.licensePlate = vehicle.licensePlate;
+        this.vehicleType = vehicle.getType();
+        this.location = location;
+        this.entryMillis = entryMillis;
+        this.exitMillis = exitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return licensePlate + " (" + vehicleType + ") at " + location + ": " + (exitMillis - entryMillis) / 60_000 + " min, "
+                + (amountCents < 0 ? "unsettled" : amountCents + " cents");
+    }
+}
+
+interface PricingPolicy {
+    long priceCents(VehicleType type, long entryMillis, long exitMillis);
+}
+
+// Hourly rates that change with the length of the stay, e.g. 200/h for the first 2 hours,
+// then 150/h. Stays are billed per started minute; tiers are added in order per type, and
+// the last tier's rate also covers any time past its end.
+class TieredPricingPolicy implements PricingPolicy {
+    private final Map<VehicleType, List<long[]>> tiers = new EnumMap<>(VehicleType.class);
+
+    // The rate applies from the end of the previous tier up to upToMinutes into the stay
+    public TieredPricingPolicy tier(VehicleType type, long upToMinutes, long centsPerHour) {
+        tiers.computeIfAbsent(type, t -> new ArrayList<>()).add(new long[] {upToMinutes, centsPerHour});
+        return this;
+    }
+
+    @Override
+    public long priceCents(VehicleType type, long entryMillis, long exitMillis) {
+        long minutes = Math.max(0, (exitMillis - entryMillis + 59_999) / 60_000);
+        List<long[]> typeTiers = tiers.getOrDefault(type, Collections.emptyList());
+        long cents = 0;
+        long tierStart = 0;
+        for(int i = 0; i < typeTiers.size() && tierStart < minutes; i++) {
+            long[] tier = typeTiers.get(i);
+            long tierEnd = i == typeTiers.size() - 1 ? minutes : Math.min(minutes, tier[0]);
+            if(tierEnd > tierStart) {
+                cents += ((tierEnd - tierStart) * tier[1] + 59) / 60;
+            }
+            tierStart = Math.max(tierStart, tier[0]);
+        }
+        return cents;
+    }
+}
+
+interface BillingSink {
+    void write(List<ParkingSession> settled) throws IOException;
+}
+
+// Takes completed stays off the exit gate's hands: submit only enqueues, and one settler
+// thread prices and writes them in batches. The queue is bounded and that bound is the
+// backpressure: when it is full, an exit waits up to offerTimeoutMillis for room, and if
+// the settler still has not caught up the session is shed and counted rather than held in
+// memory. A session that cannot be priced, or a batch the sink rejects while closing, is
+// counted as failed and kept as lastFailure; the settler itself never stops early.
+class BillingPipeline implements AutoCloseable {
+    private static final long RETRY_MILLIS = 100;
+
+    private final BlockingQueue<ParkingSession> queue;
+    private final PricingPolicy pricing;
+    private final BillingSink sink;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder();
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Exception lastFailure;
+    // exit time of the oldest session in the batch being written, Long.MAX_VALUE when idle
+    private volatile long inFlightOldestExit = Long.MAX_VALUE;
+    private final Thread settler;
+    private volatile boolean running = true;
+
+    public BillingPipeline(PricingPolicy pricing, BillingSink sink, int queueCapacity, int batchSize, long offerTimeoutMillis) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pricing = pricing;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.settler = new Thread(this::runSettler, "billing-settler");
+        settler.setDaemon(true);
+        settler.start();
+    }
+
+    // Returns false if the session was shed because the queue stayed full
+    public boolean submit(ParkingSession session) {
+        submitted.increment();
+        boolean queued;
+        try {
+            queued = queue.offer(session, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if(!queued) shed.increment();
+        return queued;
+    }
+
+    private void runSettler() {
+        List<ParkingSession> batch = new ArrayList<>(batchSize);
+        while(running || !queue.isEmpty() || !batch.isEmpty()) {
+            // a batch left over from a failed write is retried as it is, without pricing it again
+            if(batch.isEmpty()) {
+                if(queue.drainTo(batch, batchSize) == 0) {
+                    try {
+                        ParkingSession next = queue.poll(1, TimeUnit.MILLISECONDS);
+                        if(next == null) continue;
+                        batch.add(next);
+                    } catch (InterruptedException e) {
+                        running = false;
+                        continue;
+                    }
+                }
+                price(batch);
+                if(batch.isEmpty()) continue;
+            }
+            if(!writeBatch(batch)) continue;
+            for(ParkingSession session: batch) {
+                revenueCents.add(session.amountCents);
+            }
+            settled.addAndGet(batch.size());
+            batch.clear();
+            inFlightOldestExit = Long.MAX_VALUE;
+        }
+    }
+
+    // Prices every session once, dropping the ones the policy throws on
+    private void price(List<ParkingSession> batch) {
+        long oldestExit = Long.MAX_VALUE;
+        Iterator<ParkingSession> sessions = batch.iterator();
+        while(sessions.hasNext()) {
+            ParkingSession session = sessions.next();
+            try {
+                session.amountCents = pricing.priceCents(session.vehicleType, session.entryMillis, session.exitMillis);
+            } catch (RuntimeException e) {
+                lastFailure = e;
+                failed.incrementAndGet();
+                sessions.remove();
+                continue;
+            }
+            oldestExit = Math.min(oldestExit, session.exitMillis);
+        }
+        inFlightOldestExit = oldestExit;
+    }
+
+    // A batch the sink fails with an IOException is kept for another try; once closing, or if
+    // the sink throws anything else, it is counted as failed and dropped
+    private boolean writeBatch(List<ParkingSession> batch) {
+        try {
+            sink.write(batch);
+            return true;
+        } catch (IOException e) {
+            lastFailure = e;
+            if(running) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+                return false;
+            }
+        } catch (RuntimeException e) {
+            lastFailure = e;
+        }
+        failed.addAndGet(batch.size());
+        batch.clear();
+        inFlightOldestExit = Long.MAX_VALUE;
+        return false;
+    }
+
+    // Sessions handed in but neither settled, shed nor given up on
+    public long pendingSessions() {
+        return submitted.sum() - shed.sum() - settled.get() - failed.get();
+    }
+
+    // How long the oldest unsettled session, including the batch being written, has been
+    // waiting since its exit; 0 when caught up
+    public long lagMillis() {
+        long oldestExit = inFlightOldestExit;
+        ParkingSession queued = queue.peek();
+        if(queued != null) oldestExit = Math.min(oldestExit, queued.exitMillis);
+        return oldestExit == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldestExit);
+    }
+
+    public long settledSessions() {
+        return settled.get();
+    }
+
+    // Sessions dropped because they could not be priced, or their batch could not be written
+    public long failedSessions() {
+        return failed.get();
+    }
+
+    // The most recent pricing or write error, null if there has been none
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    // Sessions turned away because the queue stayed full for offerTimeoutMillis
+    public long shedSessions() {
+        return shed.sum();
+    }
+
+    public long revenueCents() {
+        return revenueCents.sum();
+    }
+
+    // Settles everything submitted so far, then stops the settler
+    @Override
+    public void close() {
+        running = false;
+        try {
+            settler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+enum ReservationStatus {
+    BOOKED,
+    CHECKED_IN,
+    COMPLETED,
+    CANCELLED
+}
+
+// A booked spot of one type on one level for [startMillis, endMillis)
+class Reservation {
+    private static final AtomicReferenceFieldUpdater<Reservation, ReservationStatus> STATUS =
+            AtomicReferenceFieldUpdater.newUpdater(Reservation.class, ReservationStatus.class, "status");
+
+    public final long reservationId;
+    public final int levelIndex;
+    public final VehicleType vehicleType;
+    public final long startMillis;
+    public final long endMillis;
+    public volatile ReservationStatus status = ReservationStatus.BOOKED;
+    // set on check-in
+    public volatile String licensePlate;
+
+    public Reservation(long reservationId, int levelIndex, VehicleType vehicleType, long startMillis, long endMillis) {
+        this.reservationId = reservationId;
+        this.levelIndex = levelIndex;
+        this.vehicleType = vehicleType;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+    }
+
+    boolean moveTo(ReservationStatus from, ReservationStatus to) {
+        return STATUS.compareAndSet(this, from, to);
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation " + reservationId + " " + vehicleType + " on level index " + levelIndex + " " + status;
+    }
+}
+
+// Advance bookings counted per (level, vehicle type) in fixed time buckets, so booking a
+// window costs one CAS per bucket it covers and never looks at a spot. Each bucket keeps
+// how many reservations cover it and how many of those have already arrived; the ones
+// still to arrive are held back from walk-ins for the next holdAheadBuckets buckets.
+// Counters live in a ring of horizonBuckets longs per (level, type), each packing
+// [bucket number:32][booked:16][arrived:16], so a slot left over from an earlier lap of
+// the ring reads as empty and is reset by the first CAS that touches it.
+class ReservationBook {
+    private static final int COUNT_MASK = 0xFFFF;
+    private static final int TYPES = VehicleType.values().length;
+
+    private final ParkingLot lot;
+    private final long bucketMillis;
+    private final int horizonBuckets;
+    private final int holdAheadBuckets;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<AtomicLongArray> counters = new AtomicReferenceArray<>(LotAvailability.MAX_LEVELS * TYPES);
+    private final AtomicLong nextReservationId = new AtomicLong(1);
+    // license plate -> reservation it checked in with
+    private final Map<String, Reservation> checkedIn = new ConcurrentHashMap<>();
+
+    public ReservationBook(ParkingLot lot, long bucketMillis, int horizonBuckets, int holdAheadBuckets, LongSupplier clock) {
+        if(horizonBuckets > COUNT_MASK || holdAheadBuckets < 1 || holdAheadBuckets > horizonBuckets) {
+            throw new IllegalArgumentException("Need 1 <= holdAheadBuckets <= horizonBuckets <= " + COUNT_MASK);
+        }
+        this.lot = lot;
+        this.bucketMillis = bucketMillis;
+        this.horizonBuckets = horizonBuckets;
+        this.holdAheadBuckets = holdAheadBuckets;
+        this.clock = clock;
+    }
+
+    // Books a spot of the type on that level for the window; null when some bucket is full
+    public Reservation book(int levelIndex, VehicleType type, long startMillis, long endMillis) {
+        long now = clock.getAsLong();
+        long first = bucketOf(Math.max(startMillis, now));
+        long last = bucketOf(endMillis - 1);
+        if(endMillis <= startMillis || endMillis <= now) {
+            throw new IllegalArgumentException("Reservation window is empty or already over.");
+        }
+        if(last - bucketOf(now) >= horizonBuckets) {
+            throw new IllegalArgumentException("Reservations can be made at most " + horizonBuckets * bucketMillis + " ms ahead.");
+        }
+        Level level = lot.levels.get(levelIndex);
+        AtomicLongArray ring = ring(levelIndex, type);
+        int capacity = Math.min(level.getCapacity(type), COUNT_MASK);
+        long holdUntil = bucketOf(now) + holdAheadBuckets;
+        for(long bucket = first; bucket <= last; bucket++) {
+            if(!add(ring, bucket, 1, 0, capacity)) {
+                release(ring, first, bucket, 1, 0);
+                return null;
+            }
+        }
+        // a bucket inside the hold window also needs a spot that is free right now; checked after
+        // counting so that a walk-in racing with this booking sees one or the other
+        for(long bucket = first; bucket <= last && bucket < holdUntil; bucket++) {
+            if(outstanding(ring, bucket) > level.getAvailableSpots(type)) {
+                release(ring, first, last + 1, 1, 0);
+                return null;
+            }
+        }
+        return new Reservation(nextReservationId.getAndIncrement(), levelIndex, type, startMillis, endMillis);
+    }
+
+    // Books the first level that has room for the whole window
+    public Reservation book(VehicleType type, long startMillis, long endMillis) {
+        for(int levelIndex = 0; levelIndex < lot.levels.size(); levelIndex++) {
+            Reservation reservation = book(levelIndex, type, startMillis, endMillis);
+            if(reservation != null) return reservation;
+        }
+        return null;
+    }
+
+    public boolean cancel(Reservation reservation) {
+        if(!reservation.moveTo(ReservationStatus.BOOKED, ReservationStatus.CANCELLED)) return false;
+        long from = bucketOf(Math.max(reservation.startMillis, clock.getAsLong()));
+        release(ring(reservation.levelIndex, reservation.vehicleType), from, bucketOf(reservation.endMillis - 1) + 1, 1, 0);
+        return true;
+    }
+
+    // Whether a walk-in may take one more spot of the type on the level without eating into
+    // spots promised to reservations that have not arrived yet
+    boolean allowsWalkIn(Level level, int levelIndex, VehicleType type) {
+        return level.getAvailableSpots(type) > heldBack(levelIndex, type);
+    }
+
+    // Re-check once the walk-in holds its spot: a racing booking may have counted on it
+    boolean walkInStillFits(Level level, int levelIndex, VehicleType type) {
+        return level.getAvailableSpots(type) >= heldBack(levelIndex, type);
+    }
+
+    private int heldBack(int levelIndex, VehicleType type) {
+        AtomicLongArray ring = counters.get(levelIndex * TYPES + type.ordinal());
+        if(ring == null) return 0;
+        long now = bucketOf(clock.getAsLong());
+        int held = 0;
+        for(long bucket = now; bucket < now + holdAheadBuckets; bucket++) {
+            held = Math.max(held, outstanding(ring, bucket));
+        }
+        return held;
+    }
+
+    // Whether this vehicle may use the reservation now (early arrivals get one bucket of grace)
+    boolean canCheckIn(Reservation reservation, Vehicle vehicle) {
+        long now = clock.getAsLong();
+        return reservation.status == ReservationStatus.BOOKED && vehicle.getType() == reservation.vehicleType
+                && now >= reservation.startMillis - bucketMillis && now < reservation.endMillis;
+    }
+
+    // Called once the vehicle holds its spot: from now on the spot counts as taken, not held back
+    boolean checkIn(Reservation reservation, Vehicle vehicle) {
+        if(!reservation.moveTo(ReservationStatus.BOOKED, ReservationStatus.CHECKED_IN)) return false;
+        reservation.licensePlate = vehicle.licensePlate;
+        long from = bucketOf(Math.max(reservation.startMillis, clock.getAsLong()));
+        AtomicLongArray ring = ring(reservation.levelIndex, reservation.vehicleType);
+        for(long bucket = from; bucket <= bucketOf(reservation.endMillis - 1); bucket++) {
+            add(ring, bucket, 0, 1, COUNT_MASK);
+        }
+        checkedIn.put(vehicle.licensePlate, reservation);
+        return true;
+    }
+
+    // Leaving early hands the rest of the window back to other bookings
+    void checkOut(String licensePlate) {
+        Reservation reservation = checkedIn.remove(licensePlate);
+        if(reservation == null || !reservation.moveTo(ReservationStatus.CHECKED_IN, ReservationStatus.COMPLETED)) return;
+        long now = clock.getAsLong();
+        if(now >= reservation.endMillis) return;
+        long from = bucketOf(Math.max(reservation.startMillis, now));
+        release(ring(reservation.levelIndex, reservation.vehicleType), from, bucketOf(reservation.endMillis - 1) + 1, 1, 1);
+    }
+
+    // Reservations covering the bucket holding atMillis, for reports
+    public int bookedAt(int levelIndex, VehicleType type, long atMillis) {
+        AtomicLongArray ring = counters.get(levelIndex * TYPES + type.ordinal());
+        long bucket = bucketOf(atMillis);
+        return ring == null ? 0 : booked(ring.get(slotOf(bucket)), bucket);
+    }
+
+    private long bucketOf(long millis) {
+        return Math.floorDiv(millis, bucketMillis);
+    }
+
+    private int slotOf(long bucket) {
+        return (int) Math.floorMod(bucket, (long) horizonBuckets);
+    }
+
+    private AtomicLongArray ring(int levelIndex, VehicleType type) {
+        int key = levelIndex * TYPES + type.ordinal();
+        AtomicLongArray ring = counters.get(key);
+        if(ring == null) {
+            counters.compareAndSet(key, null, new AtomicLongArray(horizonBuckets));
+            ring = counters.get(key);
+        }
+        return ring;
+    }
+
+    private static int booked(long packed, long bucket) {
+        return (packed >>> 32) == (bucket & 0xFFFFFFFFL) ? (int) (packed >>> 16) & COUNT_MASK : 0;
+    }
+
+    private static int arrived(long packed, long bucket) {
+        return (packed >>> 32) == (bucket & 0xFFFFFFFFL) ? (int) packed & COUNT_MASK : 0;
+    }
+
+    private int outstanding(AtomicLongArray ring, long bucket) {
+        long packed = ring.get(slotOf(bucket));
+        return booked(packed, bucket) - arrived(packed, bucket);
+    }
+
+    // Adds to one bucket's counts unless booked would go past maxBooked
+    private boolean add(AtomicLongArray ring, long bucket, int booked, int arrived, int maxBooked) {
+        int slot = slotOf(bucket);
+        while(true) {
+            long packed = ring.get(slot);
+            int newBooked = Math.max(0, booked(packed, bucket) + booked);
+            int newArrived = Math.max(0, arrived(packed, bucket) + arrived);
+            if(newBooked > maxBooked) return false;
+            long updated = ((bucket & 0xFFFFFFFFL) << 32) | ((long) newBooked << 16) | newArrived;
+            if(ring.compareAndSet(slot, packed, updated)) return true;
+        }
+    }
+
+    private void release(AtomicLongArray ring, long fromBucket, long toBucket, int booked, int arrived) {
+        for(long bucket = fromBucket; bucket < toBucket; bucket++) {
+            add(ring, bucket, -booked, -arrived, COUNT_MASK);
+        }
+    }
+}
+
+// Which other spot types a vehicle may take once every spot of its own type is full,
+// in order of preference
+class OverflowRules {
+    private final Map<VehicleType, List<VehicleType>> fallbacks = new EnumMap<>(VehicleType.class);
+
+    public OverflowRules allow(VehicleType vehicleType, VehicleType... spotTypes) {
+        fallbacks.computeIfAbsent(vehicleType, type -> new ArrayList<>()).addAll(Arrays.asList(spotTypes));
+        return this;
+    }
+
+    public List<VehicleType> fallbacks(VehicleType vehicleType) {
+        return fallbacks.getOrDefault(vehicleType, Collections.emptyList());
+    }
+
+    public static OverflowRules none() {
+        return new OverflowRules();
+    }
+
+    // bikes may take car and then truck spots, cars may take truck spots
+    public static OverflowRules smallerIntoLarger() {
+        return new OverflowRules()
+                .allow(VehicleType.MOTORCYCLE, VehicleType.CAR, VehicleType.TRUCK)
+                .allow(VehicleType.CAR, VehicleType.TRUCK);
+    }
+}
+
+// Moves free flexible spots towards the vehicle types that run short. Each run looks at
+// the misses per type since the last run (arrivals that found their own type full) and at
+// utilization, then retypes up to maxMovesPerRun free flexible spots from the least used
+// type to the most pressed one, never pushing the donor above lowWater. Retypes go through
+// Level.retypeFlexibleSpot, so gates never wait on the rebalancer.
+class SpotRebalancer implements AutoCloseable {
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    private final ParkingLot lot;
+    private final int maxMovesPerRun;
+    private final double highWater;
+    private final double lowWater;
+    private final long[] lastMisses = new long[TYPES.length];
+    private ScheduledExecutorService executor;
+
+    public SpotRebalancer(ParkingLot lot, int maxMovesPerRun, double highWater, double lowWater) {
+        this.lot = lot;
+        this.maxMovesPerRun = maxMovesPerRun;
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        for(VehicleType type: TYPES) {
+            lastMisses[type.ordinal()] = lot.metrics.misses(type);
+        }
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if(executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spot-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::rebalance, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // One pass; returns how many spots changed type
+    public synchronized int rebalance() {
+        long[] recentMisses = new long[TYPES.length];
+        for(VehicleType type: TYPES) {
+            long misses = lot.metrics.misses(type);
+            recentMisses[type.ordinal()] = misses - lastMisses[type.ordinal()];
+            lastMisses[type.ordinal()] = misses;
+        }
+        VehicleType needy = null;
+        for(VehicleType type: TYPES) {
+            if(recentMisses[type.ordinal()] > 0 && (needy == null || recentMisses[type.ordinal()] > recentMisses[needy.ordinal()])) {
+                needy = type;
+            }
+        }
+        if(needy == null) {
+            for(VehicleType type: TYPES) {
+                if(utilization(type, 0) >= highWater && (needy == null || utilization(type, 0) > utilization(needy, 0))) {
+                    needy = type;
+                }
+            }
+        }
+        if(needy == null) return 0;
+        VehicleType donor = null;
+        for(VehicleType type: TYPES) {
+            if(type != needy && utilization(type, 1) < lowWater && (donor == null || utilization(type, 0) < utilization(donor, 0))) {
+                donor = type;
+            }
+        }
+        if(donor == null) return 0;
+
+        int moves = 0;
+        for(Level level: lot.levels) {
+            for(int k = 0; k < level.flexibleSpotCount() && moves < maxMovesPerRun; k++) {
+                if(utilization(donor, 1) >= lowWater) return moves;
+                if(level.spotTypeAt(level.flexiblePosition(k)) == donor && level.retypeFlexibleSpot(k, needy)) {
+                    moves++;
+                }
+            }
+        }
+        return moves;
+    }
+
+    // Share of the type's spots in use if it had fewerSpots spots less
+    private double utilization(VehicleType type, int fewerSpots) {
+        int capacity = lot.availability.capacity(type) - fewerSpots;
+        return capacity <= 0 ? 1 : (double) lot.availability.occupiedSpots(type) / capacity;
+    }
+
+    @Override
+    public synchronized void close() {
+        if(executor != null) executor.shutdownNow();
+    }
+}
+
+class ParkingLot {
+    private static final int MAX_PARK_ATTEMPTS = 3;
+
+    public static volatile ParkingLot instance;
+    public List<Level> levels;
+    private final boolean concurrent;
+    public final LotAvailability availability = new LotAvailability();
+    // license plate -> where that vehicle is parked
+    private final Map<String, SpotLocation> vehicleLocations = new ConcurrentHashMap<>();
+    public final ParkingMetrics metrics = new ParkingMetrics();
+    public final ParkingEventStream events = new ParkingEventStream();
+    private volatile ParkingJournal journal;
+    private volatile ReservationBook reservations;
+    private volatile BillingPipeline billing;
+    private volatile OverflowRules overflowRules = OverflowRules.none();
+    // where the outcome of every park call is printed; null keeps the lot quiet
+    private final PrintStream console;
+
+    public ParkingLot() {
+        this(false);
+    }
+
+    // A concurrent lot can be driven by many entry and exit gates at once
+    public ParkingLot(boolean concurrent) {
+        this(concurrent, System.out);
+    }
+
+    public ParkingLot(boolean concurrent, PrintStream console) {
+        this.concurrent = concurrent;
+        this.console = console;
+        levels = concurrent ? new CopyOnWriteArrayList<>() : new ArrayList<>();
+    }
+
+    // The shared instance is the one every gate talks to, so it runs in concurrent mode
+    public static ParkingLot getInstance() {
+        ParkingLot lot = instance;
+        if(lot == null) {
+            synchronized(ParkingLot.class) {
+                lot = instance;
+                if(lot == null) {
+                    lot = new ParkingLot(true);
+                    instance = lot;
+                }
+            }
+        }
+        return lot;
+    }
+
+    public synchronized void addLevel(Level level) {
+        if(levels.size() >= LotAvailability.MAX_LEVELS) {
+            throw new IllegalStateException("A lot can have at most " + LotAvailability.MAX_LEVELS + " levels.");
+        }
+        levels.add(level);  
+        level.journal = journal;
+        // the level stays unreachable until attach publishes its free spots
+        level.attach(availability, levels.size() - 1, concurrent);
+    }
+
+    // Every park and unpark from now on is appended to this journal; null stops logging
+    public synchronized void setJournal(ParkingJournal journal) {
+        this.journal = journal;
+        for(Level level: levels) {
+            level.journal = journal;
+        }
+    }
+
+    // Recovery only: replays "vehicle is in this spot" without logging or metrics
+    void restoreSpot(int levelIndex, int position, Vehicle vehicle, long parkedSinceMillis) {
+        Level level = levels.get(levelIndex);
+        SpotLocation previousLocation = vehicleLocations.get(vehicle.licensePlate);
+        if(previousLocation != null) {
+            levels.get(previousLocation.levelIndex).clearSpot(previousLocation.position);
+        }
+        Vehicle previous = level.restoreSpot(position, vehicle, parkedSinceMillis);
+        if(previous != null) vehicleLocations.remove(previous.licensePlate);
+        vehicleLocations.put(vehicle.licensePlate, level.locationOf(position));
+    }
+
+    // Recovery only: replays "this spot is empty"
+    void restoreEmptySpot(int levelIndex, int position) {
+        Vehicle previous = levels.get(levelIndex).clearSpot(position);
+        if(previous != null) vehicleLocations.remove(previous.licensePlate);
+    }
+
+    // Turns on advance bookings; from then on walk-ins leave room for reservations due within holdAheadBuckets
+    public ReservationBook enableReservations(long bucketMillis, int horizonBuckets, int holdAheadBuckets) {
+        return enableReservations(bucketMillis, horizonBuckets, holdAheadBuckets, System::currentTimeMillis);
+    }
+
+    public synchronized ReservationBook enableReservations(long bucketMillis, int horizonBuckets, int holdAheadBuckets, LongSupplier clock) {
+        if(reservations == null) {
+            reservations = new ReservationBook(this, bucketMillis, horizonBuckets, holdAheadBuckets, clock);
+        }
+        return reservations;
+    }
+
+    public void setOverflowRules(OverflowRules overflowRules) {
+        this.overflowRules = overflowRules;
+    }
+
+    // Every completed stay from now on is handed to this pipeline to be priced and billed
+    public void setBilling(BillingPipeline billing) {
+        this.billing = billing;
+    }
+
+    public boolean hasRoomFor(VehicleType type) {
+        return availability.hasRoomFor(type);
+    }
+
+    public boolean parkVehicle(Vehicle vehicle) {
+        return parkVehicle(vehicle, -1);
+    }
+
+    // Parks the vehicle as close as possible to the given entrance gate on the first level with room
+    public boolean parkVehicle(Vehicle vehicle, int gate) {
+        checkJournal();
+        long start = System.nanoTime();
+        SpotLocation location = allocate(vehicle, gate);
+        metrics.recordEntry(System.nanoTime() - start, location != null);
+        events.publish(location != null ? ParkingEventType.PARKED : ParkingEventType.REJECTED, vehicle, location);
+        return location != null;
+    }
+
+    // Parks a vehicle holding a reservation on the reserved level, bypassing the walk-in hold-back
+    public boolean parkVehicle(Vehicle vehicle, Reservation reservation, int gate) {
+        checkJournal();
+        long start = System.nanoTime();
+        SpotLocation location = null;
+        ReservationBook book = reservations;
+        if(book != null && book.canCheckIn(reservation, vehicle) && !vehicleLocations.containsKey(vehicle.licensePlate)) {
+            Level level = levels.get(reservation.levelIndex);
+            int position = level.occupySpot(vehicle, gate);
+            if(position >= 0) {
+                location = register(level, position, vehicle);
+                if(location != null && !book.checkIn(reservation, vehicle)) {
+                    // the same reservation was used twice at once; this entry gives its spot back
+                    vehicleLocations.remove(vehicle.licensePlate);
+                    level.vacateSpot(position, vehicle);
+                    location = null;
+                }
+            }
+        }
+        print(location != null ? "Vehicle parked successfully." : "Could not park vehicle.");
+        metrics.recordEntry(System.nanoTime() - start, location != null);
+        events.publish(location != null ? ParkingEventType.PARKED : ParkingEventType.REJECTED, vehicle, location);
+        return location != null;
+    }
+
+    private SpotLocation allocate(Vehicle vehicle, int gate) {
+        if(vehicleLocations.containsKey(vehicle.licensePlate)) {
+            print("Vehicle " + vehicle.licensePlate + " is already parked.");
+            return null;
+        }
+        VehicleType type = vehicle.getType();
+        ReservationBook book = reservations;
+        long claimed = claimSpot(vehicle, type, gate, book);
+        if(claimed < 0) {
+            metrics.recordMiss(type);
+            for(VehicleType spotType: overflowRules.fallbacks(type)) {
+                claimed = claimSpot(vehicle, spotType, gate, book);
+                if(claimed >= 0) break;
+            }
+        }
+        if(claimed < 0) {
+            print("Could not park vehicle.");
+            return null;
+        }
+        SpotLocation location = register(levels.get((int) (claimed >>> 32)), (int) claimed, vehicle);
+        if(location == null) {
+            print("Vehicle " + vehicle.licensePlate + " is already parked.");
+            return null;
+        }
+        print("Vehicle parked successfully.");
+        return location;
+    }
+
+    private void print(String message) {
+        if(console != null) console.println(message);
+    }
+
+    // Refuses changes once the journal has stopped writing, since they could not be recovered
+    private void checkJournal() {
+        ParkingJournal log = journal;
+        if(log != null) log.checkHealthy();
+    }
+
+    // Puts the vehicle in a spot of spotType on the first level with room; returns
+    // levelIndex << 32 | position, or -1
+    private long claimSpot(Vehicle vehicle, VehicleType spotType, int gate, ReservationBook book) {
+        // other gates can drain a level between the lookup and the claim, so retry while room remains
+        for(int attempt = 0; attempt < MAX_PARK_ATTEMPTS && availability.hasRoomFor(spotType); attempt++) {
+            for(int i = availability.nextLevelWithRoom(spotType, 0); i >= 0; i = availability.nextLevelWithRoom(spotType, i + 1)) {
+                Level level = levels.get(i);
+                if(book != null && !book.allowsWalkIn(level, i, spotType)) continue;
+                int position = level.occupySpot(vehicle, spotType, gate);
+                if(position >= 0) {
+                    if(book != null && !book.walkInStillFits(level, i, spotType)) {
+                        level.vacateSpot(position, vehicle);
+                        continue;
+                    }
+                    return (long) i << 32 | position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Records the plate at its new spot; a racing entry with the same plate loses here and gives its spot back
+    private SpotLocation register(Level level, int position, Vehicle vehicle) {
+        SpotLocation location = level.locationOf(position);
+        if(vehicleLocations.putIfAbsent(vehicle.licensePlate, location) != null) {
+            level.vacateSpot(position, vehicle);
+            return null;
+        }
+        return location;
+    }
+
+    public boolean unparkVehicle(Vehicle vehicle) {
+        checkJournal();
+        long start = System.nanoTime();
+        SpotLocation location = vehicleLocations.get(vehicle.licensePlate);
+        if(location == null) {
+            return false;
+        }
+        Level level = levels.get(location.levelIndex);
+        // read before the spot is freed, while the vehicle still holds it
+        long parkedSince = level.parkedSince(location.position);
+        // vacating is a compare-and-set on the occupant, so only one exit can free the spot;
+        // the plate stays indexed until then, so a failed exit leaves the vehicle findable
+        if(!level.vacateSpot(location.position, vehicle)) {
+            return false;
+        }
+        vehicleLocations.remove(vehicle.licensePlate, location);
+        BillingPipeline pipeline = billing;
+        if(pipeline != null) {
+            pipeline.submit(new ParkingSession(vehicle, location, parkedSince, System.currentTimeMillis()));
+        }
+        ReservationBook book = reservations;
+        if(book != null) book.checkOut(vehicle.licensePlate);
+        metrics.recordExit(System.nanoTime() - start);
+        events.publish(ParkingEventType.UNPARKED, vehicle, location);
+        return true;
+    }
+
+    public int getOccupiedSpots(VehicleType type) {
+        return availability.occupiedSpots(type);
+    }
+
+    // Occupancy per level and type from the running counters, without touching any spot
+    public String occupancySummary() {
+        StringBuilder builder = new StringBuilder();
+        for(Level level: levels) {
+            builder.append("Level ").append(level.floor).append(":");
+            for(VehicleType type: VehicleType.values()) {
+                builder.append(" ").append(type).append(" ").append(level.getOccupiedSpots(type))
+                        .append("/").append(level.getCapacity(type));
+            }
+            builder.append("\n");
+        }
+        builder.append("Rejection rate: ").append(String.format("%.2f%%", metrics.rejectionRate() * 100))
+                .append(", entry p50/p99 (ns): ").append(metrics.entryLatency.percentile(50))
+                .append("/").append(metrics.entryLatency.percentile(99))
+                .append(", exit p50/p99 (ns): ").append(metrics.exitLatency.percentile(50))
+                .append("/").append(metrics.exitLatency.percentile(99));
+        return builder.toString();
+    }
+
+    // Where a vehicle is parked, or null if it is not in the lot
+    public SpotLocation findVehicle(String licensePlate) {
+        return vehicleLocations.get(licensePlate);
+    }
+
+    public void displayAvailability() {
+        for (Level level: levels) {
+            level.displayAvailability();
+        }
+    }
+}
+
+// Write-ahead log of park/unpark records, split into numbered segment files.
+// Gates only enqueue; one writer thread drains the queue in batches and fsyncs each
+// batch once (group commit). Record layout: int payload length, payload, int CRC32,
+// where the payload is lsn, op, varint level, varint position and, for parks, entry
+// time, vehicle type and varint-length plate, or for retypes the spot's new type. A torn
+// tail record fails its CRC and ends replay.
+class ParkingJournal implements AutoCloseable {
+    static final byte PARK = 1;
+    static final byte UNPARK = 2;
+    static final byte RETYPE = 3;
+    private static final int MAX_BATCH_RECORDS = 8192;
+    private static final long BATCH_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static class Record {
+        final long lsn;
+        final byte op;
+        final int levelIndex;
+        final int position;
+        final VehicleType vehicleType;
+        // encoded by the caller, so the writer thread only copies bytes
+        final byte[] plate;
+        final long timestampMillis;
+        final VehicleType spotType;
+        // only set for sync barriers, which carry no payload
+        final CountDownLatch synced;
+
+        Record(long lsn, byte op, int levelIndex, int position, Vehicle vehicle, long timestampMillis, VehicleType spotType, CountDownLatch synced) {
+            this.lsn = lsn;
+            this.op = op;
+            this.levelIndex = levelIndex;
+            this.position = position;
+            this.vehicleType = vehicle == null ? null : vehicle.getType();
+            this.plate = vehicle == null ? null : vehicle.licensePlate.getBytes(StandardCharsets.UTF_8);
+            this.timestampMillis = timestampMillis;
+            this.spotType = spotType;
+            this.synced = synced;
+        }
+
+        int maxEncodedSize() {
+            return 4 + 8 + 1 + 5 + 5 + 8 + 1 + 5 + (plate == null ? 0 : plate.length) + 4;
+        }
+    }
+
+    private final Path directory;
+    private final AtomicLong nextLsn;
+    private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    // closed segments and the highest LSN each holds; guarded by this
+    private final Map<Path, Long> closedSegments = new LinkedHashMap<>();
+    private volatile boolean rotateRequested;
+    private FileChannel channel;
+    private Path currentSegment;
+    private long currentSegmentMaxLsn = -1;
+    private long segmentNumber;
+
+    public ParkingJournal(Path directory, long nextLsn, long nextSegmentNumber) throws IOException {
+        this.directory = directory;
+        this.nextLsn = new AtomicLong(nextLsn);
+        this.segmentNumber = nextSegmentNumber;
+        Files.createDirectories(directory);
+        openSegment();
+        this.writer = new Thread(this::runWriter, "parking-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long logPark(int levelIndex, int position, Vehicle vehicle, long parkedAtMillis) {
+        return append(PARK, levelIndex, position, vehicle, parkedAtMillis, null);
+    }
+
+    public long logUnpark(int levelIndex, int position) {
+        return append(UNPARK, levelIndex, position, null, 0, null);
+    }
+
+    public long logRetype(int levelIndex, int position, VehicleType spotType) {
+        return append(RETYPE, levelIndex, position, null, 0, spotType);
+    }
+
+    // Once a write has failed, records are no longer written; callers check checkHealthy()
+    // before changing anything, so a change is never made as if it were durable
+    private long append(byte op, int levelIndex, int position, Vehicle vehicle, long timestampMillis, VehicleType spotType) {
+        long lsn = nextLsn.getAndIncrement();
+        queue.offer(new Record(lsn, op, levelIndex, position, vehicle, timestampMillis, spotType, null));
+        return lsn;
+    }
+
+    // Throws the write error that stopped this journal, if there was one
+    public void checkHealthy() {
+        IOException e = failure;
+        if(e != null) throw new UncheckedIOException("Parking journal stopped after a failed write", e);
+    }
+
+    // Blocks until everything logged before this call is on disk
+    public void sync() throws IOException {
+        CountDownLatch synced = new CountDownLatch(1);
+        queue.offer(new Record(-1, (byte) 0, 0, 0, null, 0, null, synced));
+        try {
+            synced.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the journal", e);
+        }
+        if(failure != null) throw failure;
+    }
+
+    public long nextLsn() {
+        return nextLsn.get();
+    }
+
+    // Starts a new segment at the writer's next batch boundary and waits for it
+    public void rotate() throws IOException {
+        rotateRequested = true;
+        sync();
+    }
+
+    // Deletes closed segments whose records are all older than lsn (i.e. covered by a snapshot)
+    public synchronized void deleteSegmentsBefore(long lsn) throws IOException {
+        Iterator<Map.Entry<Path, Long>> it = closedSegments.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Path, Long> segment = it.next();
+            if(segment.getValue() < lsn) {
+                Files.deleteIfExists(segment.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    // Segments written before this journal was opened, as found by recovery
+    synchronized void registerClosedSegment(Path segment, long maxLsn) {
+        closedSegments.put(segment, maxLsn);
+    }
+
+    private void runWriter() {
+        while(running || !queue.isEmpty()) {
+            Record record = queue.poll();
+            if(record == null) {
+                LockSupport.parkNanos(BATCH_WINDOW_NANOS);
+                continue;
+            }
+            // after a failed write the segment may end in a torn record that stops replay, so
+            // nothing more is written; barriers are still released and report the failure
+            if(failure != null) {
+                if(record.synced != null) record.synced.countDown();
+                continue;
+            }
+            List<CountDownLatch> barriers = new ArrayList<>();
+            int records = 0;
+            try {
+                buffer.clear();
+                do {
+                    if(record.synced != null) barriers.add(record.synced);
+                    else write(record);
+                } while(++records < MAX_BATCH_RECORDS && (record = queue.poll()) != null);
+                flush(buffer);
+                channel.force(false);
+                if(rotateRequested) {
+                    rotateRequested = false;
+                    openSegment();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            for(CountDownLatch barrier: barriers) barrier.countDown();
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int size = record.maxEncodedSize();
+        if(buffer.remaining() < size) flush(buffer);
+        if(size <= buffer.capacity()) {
+            encode(record, buffer);
+            return;
+        }
+        // a record larger than the batch buffer goes out on its own
+        ByteBuffer large = ByteBuffer.allocate(size);
+        encode(record, large);
+        flush(large);
+    }
+
+    private void flush(ByteBuffer out) throws IOException {
+        out.flip();
+        while(out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    private void encode(Record record, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(0);
+        buffer.putLong(record.lsn);
+        buffer.put(record.op);
+        putVarint(buffer, record.levelIndex);
+        putVarint(buffer, record.position);
+        if(record.op == PARK) {
+            buffer.putLong(record.timestampMillis);
+            buffer.put((byte) record.vehicleType.ordinal());
+            putVarint(buffer, record.plate.length);
+            buffer.put(record.plate);
+        } else if(record.op == RETYPE) {
+            buffer.put((byte) record.spotType.ordinal());
+        }
+        int payloadLength = buffer.position() - start - 4;
+        buffer.putInt(start, payloadLength);
+        crc.reset();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + 4).limit(start + 4 + payloadLength);
+        crc.update(payload);
+        buffer.putInt((int) crc.getValue());
+        currentSegmentMaxLsn = Math.max(currentSegmentMaxLsn, record.lsn);
+    }
+
+    private synchronized void openSegment() throws IOException {
+        if(channel != null) {
+            channel.close();
+            closedSegments.put(currentSegment, currentSegmentMaxLsn);
+        }
+        currentSegment = directory.resolve(String.format("journal-%012d.log", segmentNumber++));
+        currentSegmentMaxLsn = -1;
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized(this) {
+            channel.close();
+        }
+        if(failure != null) throw failure;
+    }
+}
+
+// Durable state for one ParkingLot: recovers it from the latest snapshot plus the journal
+// tail, then logs every change and takes periodic snapshots that let old segments go.
+// Snapshots are fuzzy: they start at a journal LSN and are taken while gates keep
+// running; replaying every record from that LSN on (park = "this vehicle is in this
+// spot", unpark = "this spot is empty") converges to the exact state.
+class ParkingPersistence implements AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x504C534E;
+    private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+
+    private final ParkingLot lot;
+    private final Path directory;
+    private final ParkingJournal journal;
+    private final ScheduledExecutorService snapshotter;
+    private final AtomicLong snapshotFailures = new AtomicLong();
+    private volatile IOException lastSnapshotFailure;
+
+    private ParkingPersistence(ParkingLot lot, Path directory, ParkingJournal journal, long snapshotIntervalMillis) {
+        this.lot = lot;
+        this.directory = directory;
+        this.journal = journal;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "parking-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                lastSnapshotFailure = e;
+                snapshotFailures.incrementAndGet();
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Restores the lot (which must already have its levels) from directory and starts logging
+    public static ParkingPersistence open(ParkingLot lot, Path directory, long snapshotIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        long snapshotLsn = loadLatestSnapshot(lot, directory);
+        long nextLsn = snapshotLsn;
+        long nextSegment = 0;
+        Map<Path, Long> segments = new LinkedHashMap<>();
+        for(Path segment: sortedFiles(directory, "journal-*.log")) {
+            long maxLsn = replaySegment(lot, segment, snapshotLsn);
+            segments.put(segment, maxLsn);
+            nextLsn = Math.max(nextLsn, maxLsn + 1);
+            nextSegment = Math.max(nextSegment, segmentNumber(segment) + 1);
+        }
+        ParkingJournal journal = new ParkingJournal(directory, nextLsn, nextSegment);
+        segments.forEach(journal::registerClosedSegment);
+        lot.setJournal(journal);
+        return new ParkingPersistence(lot, directory, journal, snapshotIntervalMillis);
+    }
+
+    public ParkingJournal journal() {
+        return journal;
+    }
+
+    // Background snapshots that failed; the journal keeps every segment until one succeeds
+    public long snapshotFailures() {
+        return snapshotFailures.get();
+    }
+
+    public IOException lastSnapshotFailure() {
+        return lastSnapshotFailure;
+    }
+
+    // Writes a snapshot, then drops the journal segments and older snapshots it makes redundant
+    public synchronized void snapshot() throws IOException {
+        long startLsn = journal.nextLsn();
+        journal.rotate();
+        Path target = directory.resolve(String.format("snapshot-%019d.bin", startLsn));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(startLsn).putInt(lot.levels.size());
+            for(Level level: lot.levels) {
+                if(buffer.remaining() < 8) drain(channel, buffer);
+                buffer.putInt(level.spotCount());
+                // current types of the flexible spots come first, then the occupied spots
+                buffer.putInt(level.flexibleSpotCount());
+                for(int k = 0; k < level.flexibleSpotCount(); k++) {
+                    if(!buffer.hasRemaining()) drain(channel, buffer);
+                    buffer.put((byte) level.spotTypeAt(level.flexiblePosition(k)).ordinal());
+                }
+                for(int position = 0; position < level.spotCount(); position++) {
+                    Vehicle vehicle = level.vehicleAt(position);
+                    if(vehicle == null) continue;
+                    byte[] plate = vehicle.licensePlate.getBytes(StandardCharsets.UTF_8);
+                    if(buffer.remaining() < 24) drain(channel, buffer);
+                    ParkingJournal.putVarint(buffer, position + 1);
+                    buffer.putLong(level.parkedSince(position));
+                    buffer.put((byte) vehicle.getType().ordinal());
+                    ParkingJournal.putVarint(buffer, plate.length);
+                    if(buffer.remaining() < plate.length) drain(channel, buffer);
+                    if(plate.length > buffer.capacity()) channel.write(ByteBuffer.wrap(plate));
+                    else buffer.put(plate);
+                }
+                if(buffer.remaining() < 8) drain(channel, buffer);
+                ParkingJournal.putVarint(buffer, 0);
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for(Path old: sortedFiles(directory, "snapshot-*.bin")) {
+            if(!old.equals(target)) Files.deleteIfExists(old);
+        }
+        journal.deleteSegmentsBefore(startLsn);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // Returns the LSN replay has to start from (0 without a snapshot)
+    private static long loadLatestSnapshot(ParkingLot lot, Path directory) throws IOException {
+        List<Path> snapshots = sortedFiles(directory, "snapshot-*.bin");
+        if(snapshots.isEmpty()) return 0;
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try(FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != SNAPSHOT_MAGIC) throw new IOException("Not a parking snapshot: " + latest);
+            long lsn = buffer.getLong();
+            int levelCount = buffer.getInt();
+            if(levelCount > lot.levels.size()) {
+                throw new IOException("Snapshot has " + levelCount + " levels but the lot only " + lot.levels.size());
+            }
+            for(int l = 0; l < levelCount; l++) {
+                int spots = buffer.getInt();
+                Level level = lot.levels.get(l);
+                int flexible = buffer.getInt();
+                if(spots != level.spotCount() || flexible != level.flexibleSpotCount()) {
+                    throw new IOException("Level " + l + " layout does not match the snapshot");
+                }
+                for(int k = 0; k < flexible; k++) {
+                    level.restoreSpotType(level.flexiblePosition(k), VEHICLE_TYPES[buffer.get()]);
+                }
+                int entry;
+                while((entry = ParkingJournal.getVarint(buffer)) != 0) {
+                    long parkedSince = buffer.getLong();
+                    VehicleType type = VEHICLE_TYPES[buffer.get()];
+                    lot.restoreSpot(l, entry - 1, new Vehicle(getPlate(buffer), type), parkedSince);
+                }
+            }
+            return lsn;
+        }
+    }
+
+    // Applies the segment's records from fromLsn on; returns the highest LSN it contains
+    private static long replaySegment(ParkingLot lot, Path segment, long fromLsn) throws IOException {
+        long maxLsn = -1;
+        CRC32 crc = new CRC32();
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while(buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if(length <= 0 || buffer.remaining() < length + 4) break;
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                buffer.position(buffer.position() + length);
+                if((int) crc.getValue() != buffer.getInt()) break;
+
+                long lsn = payload.getLong();
+                byte op = payload.get();
+                int levelIndex = ParkingJournal.getVarint(payload);
+                int position = ParkingJournal.getVarint(payload);
+                maxLsn = Math.max(maxLsn, lsn);
+                if(lsn < fromLsn) continue;
+                if(op == ParkingJournal.PARK) {
+                    long parkedSince = payload.getLong();
+                    VehicleType type = VEHICLE_TYPES[payload.get()];
+                    lot.restoreSpot(levelIndex, position, new Vehicle(getPlate(payload), type), parkedSince);
+                } else if(op == ParkingJournal.UNPARK) {
+                    lot.restoreEmptySpot(levelIndex, position);
+                } else if(op == ParkingJournal.RETYPE) {
+                    lot.levels.get(levelIndex).restoreSpotType(position, VEHICLE_TYPES[payload.get()]);
+                }
+            }
+        }
+        return maxLsn;
+    }
+
+    // A varint length, then the plate's UTF-8 bytes
+    private static String getPlate(ByteBuffer buffer) {
+        byte[] plate = new byte[ParkingJournal.getVarint(buffer)];
+        buffer.get(plate);
+        return new String(plate, StandardCharsets.UTF_8);
+    }
+
+    private static List<Path> sortedFiles(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdownNow();
+        lot.setJournal(null);
+        journal.close();
+    }
+}
+
+// One garage in the federation
+class Facility {
+    public final String facilityId;
+    public final String region;
+    public final ParkingLot lot;
+
+    public Facility(String facilityId, String region, ParkingLot lot) {
+        this.facilityId = facilityId;
+        this.region = region;
+        this.lot = lot;
+    }
+}
+
+// Answer to a free-spot query: how many spots of the type a facility had free when asked
+class FacilityAvailability {
+    public final String facilityId;
+    public final String region;
+    public final VehicleType vehicleType;
+    public final int freeSpots;
+
+    public FacilityAvailability(Facility facility, VehicleType vehicleType, int freeSpots) {
+        this.facilityId = facility.facilityId;
+        this.region = facility.region;
+        this.vehicleType = vehicleType;
+        this.freeSpots = freeSpots;
+    }
+
+    @Override
+    public String toString() {
+        return facilityId + " (" + region + "): " + freeSpots + " free " + vehicleType;
+    }
+}
+
+// A slice of the federation's facilities. Only the shard's own thread ever touches its
+// maps or its lots, so the lots run in single-threaded mode and need no locks at all.
+class FacilityShard implements AutoCloseable {
+    private final Map<String, Facility> facilities = new HashMap<>();
+    private final Map<String, List<Facility>> facilitiesByRegion = new HashMap<>();
+    private final ExecutorService executor;
+
+    public FacilityShard(int shardIndex) {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "facility-shard-" + shardIndex);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Void> register(Facility facility) {
+        return CompletableFuture.runAsync(() -> {
+            if(facilities.putIfAbsent(facility.facilityId, facility) != null) {
+                throw new IllegalArgumentException("Facility " + facility.facilityId + " is already registered.");
+            }
+            facilitiesByRegion.computeIfAbsent(facility.region, region -> new ArrayList<>()).add(facility);
+        }, executor);
+    }
+
+    public CompletableFuture<Boolean> parkVehicle(String facilityId, Vehicle vehicle, int gate) {
+        return CompletableFuture.supplyAsync(() -> facility(facilityId).lot.parkVehicle(vehicle, gate), executor);
+    }
+
+    public CompletableFuture<Boolean> unparkVehicle(String facilityId, Vehicle vehicle) {
+        return CompletableFuture.supplyAsync(() -> facility(facilityId).lot.unparkVehicle(vehicle), executor);
+    }
+
+    // Facilities of this shard in the region with at least one free spot of the type
+    public CompletableFuture<List<FacilityAvailability>> findFreeSpots(String region, VehicleType type) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<FacilityAvailability> found = new ArrayList<>();
+            for(Facility facility: facilitiesByRegion.getOrDefault(region, Collections.emptyList())) {
+                int free = facility.lot.availability.freeSpots(type);
+                if(free > 0) found.add(new FacilityAvailability(facility, type, free));
+            }
+            return found;
+        }, executor);
+    }
+
+    private Facility facility(String facilityId) {
+        Facility facility = facilities.get(facilityId);
+        if(facility == null) {
+            throw new IllegalArgumentException("Unknown facility " + facilityId);
+        }
+        return facility;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
+
+// Hosts many lots at once, sharded by facility ID. Each facility lives on exactly one
+// shard and every call for it runs on that shard's thread, so shards never share state
+// and the only cross-shard operation, the region query, is a parallel fan-out.
+class ParkingFederation implements AutoCloseable {
+    private final FacilityShard[] shards;
+
+    public ParkingFederation(int shardCount) {
+        shards = new FacilityShard[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            shards[i] = new FacilityShard(i);
+        }
+    }
+
+    FacilityShard shardFor(String facilityId) {
+        int hash = facilityId.hashCode();
+        // spread the bits so IDs differing only in their last characters still scatter
+        hash ^= hash >>> 16;
+        return shards[Math.floorMod(hash * 0x9E3779B9, shards.length)];
+    }
+
+    // The lot is handed over to its shard: from now on only go through the federation
+    public CompletableFuture<Void> addFacility(String facilityId, String region, ParkingLot lot) {
+        return shardFor(facilityId).register(new Facility(facilityId, region, lot));
+    }
+
+    public CompletableFuture<Boolean> parkVehicle(String facilityId, Vehicle vehicle) {
+        return parkVehicle(facilityId, vehicle, -1);
+    }
+
+    public CompletableFuture<Boolean> parkVehicle(String facilityId, Vehicle vehicle, int gate) {
+        return shardFor(facilityId).parkVehicle(facilityId, vehicle, gate);
+    }
+
+    public CompletableFuture<Boolean> unparkVehicle(String facilityId, Vehicle vehicle) {
+        return shardFor(facilityId).unparkVehicle(facilityId, vehicle);
+    }
+
+    // Every facility in the region with room for the type, most free spots first
+    public CompletableFuture<List<FacilityAvailability>> findFreeSpots(String region, VehicleType type) {
+        List<CompletableFuture<List<FacilityAvailability>>> perShard = new ArrayList<>(shards.length);
+        for(FacilityShard shard: shards) {
+            perShard.add(shard.findFreeSpots(region, type));
+        }
+        return CompletableFuture.allOf(perShard.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<FacilityAvailability> merged = new ArrayList<>();
+            for(CompletableFuture<List<FacilityAvailability>> shardResult: perShard) {
+                merged.addAll(shardResult.join());
+            }
+            merged.sort(Comparator.comparingInt((FacilityAvailability found) -> found.freeSpots).reversed()
+                    .thenComparing(found -> found.facilityId));
+            return merged;
+        });
+    }
+
+    // The facility in the region with the most room for the type, if any has room at all
+    public CompletableFuture<Optional<FacilityAvailability>> findAnyFreeSpot(String region, VehicleType type) {
+        return findFreeSpots(region, type).thenApply(found -> found.isEmpty() ? Optional.empty() : Optional.of(found.get(0)));
+    }
+
+    @Override
+    public void close() {
+        for(FacilityShard shard: shards) {
+            shard.close();
+        }
+    }
+}
+
+interface Distribution {
+    double sample(Random random);
+
+    static Distribution constant(double value) {
+        return random -> value;
+    }
+
+    static Distribution uniform(double min, double max) {
+        return random -> min + (max - min) * random.nextDouble();
+    }
+
+    // e.g. gaps between Poisson arrivals
+    static Distribution exponential(double mean) {
+        return random -> -mean * Math.log(1 - random.nextDouble());
+    }
+
+    // long-tailed, e.g. how long people stay
+    static Distribution logNormal(double median, double sigma) {
+        return random -> median * Math.exp(sigma * random.nextGaussian());
+    }
+}
+
+// How vehicles of each type arrive at one gate and how long they stay, in simulated seconds
+class TrafficProfile {
+    final Map<VehicleType, Distribution> secondsBetweenArrivals = new EnumMap<>(VehicleType.class);
+    final Map<VehicleType, Distribution> secondsParked = new EnumMap<>(VehicleType.class);
+
+    public TrafficProfile traffic(VehicleType type, Distribution secondsBetweenArrivals, Distribution secondsParked) {
+        this.secondsBetweenArrivals.put(type, secondsBetweenArrivals);
+        this.secondsParked.put(type, secondsParked);
+        return this;
+    }
+}
+
+class SimulationReport {
+    public long simulatedSeconds;
+    public long wallNanos;
+    public long arrivals;
+    public long departures;
+    public final Map<VehicleType, Long> rejectionsByType = new EnumMap<>(VehicleType.class);
+    public final Map<VehicleType, Long> arrivalsByType = new EnumMap<>(VehicleType.class);
+    public final Map<VehicleType, Double> peakOccupancy = new EnumMap<>(VehicleType.class);
+    public final Map<VehicleType, Double> finalOccupancy = new EnumMap<>(VehicleType.class);
+    public long entryP50;
+    public long entryP99;
+    public long entryP999;
+    public long exitP99;
+    public double rejectionRate;
+
+    public double throughput() {
+        return (arrivals + departures) * 1e9 / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d simulated s in %.2f s wall: %d arrivals, %d departures, %.0f ops/s%n",
+                simulatedSeconds, wallNanos / 1e9, arrivals, departures, throughput()));
+        builder.append(String.format("entry latency p50/p99/p99.9 (ns): %d/%d/%d, exit p99 (ns): %d%n", entryP50, entryP99, entryP999, exitP99));
+        builder.append(String.format("rejection rate: %.2f%%%n", rejectionRate * 100));
+        for(VehicleType type: VehicleType.values()) {
+            long arrived = arrivalsByType.getOrDefault(type, 0L);
+            long rejected = rejectionsByType.getOrDefault(type, 0L);
+            builder.append(String.format("  %-10s rejected %5.2f%%  occupancy peak %5.1f%%  final %5.1f%%%n", type,
+                    arrived == 0 ? 0.0 : 100.0 * rejected / arrived, 100 * peakOccupancy.getOrDefault(type, 0.0),
+                    100 * finalOccupancy.getOrDefault(type, 0.0)));
+        }
+        return builder.toString();
+    }
+}
+
+// Discrete-event rehearsal of a lot under traffic. Each gate is a thread with its own event
+// queue of arrivals and departures in simulated time; gates run through the simulated day
+// one window at a time and wait for each other at the end of every window, so they hit the
+// lot concurrently while their clocks never drift more than a window apart. A vehicle leaves
+// through the gate it came in by, so no queue is ever shared between threads. Give it a lot
+// without a console, or every park call of the run is printed.
+class TrafficSimulator {
+    private static final byte ARRIVAL = 0;
+    private static final byte DEPARTURE = 1;
+    private static final VehicleType[] TYPES = VehicleType.values();
+
+    private static class SimEvent {
+        final double time;
+        final byte kind;
+        final VehicleType type;
+        final Vehicle vehicle;
+
+        SimEvent(double time, byte kind, VehicleType type, Vehicle vehicle) {
+            this.time = time;
+            this.kind = kind;
+            this.type = type;
+            this.vehicle = vehicle;
+        }
+    }
+
+    private final ParkingLot lot;
+    private final TrafficProfile profile;
+    private final int gates;
+    private final long windowSeconds;
+    private final long seed;
+    // runs between windows while every gate waits, e.g. a SpotRebalancer pass
+    private Runnable betweenWindows;
+
+    public TrafficSimulator(ParkingLot lot, TrafficProfile profile, int gates, long windowSeconds, long seed) {
+        this.lot = lot;
+        this.profile = profile;
+        this.gates = gates;
+        this.windowSeconds = windowSeconds;
+        this.seed = seed;
+    }
+
+    public TrafficSimulator betweenWindows(Runnable task) {
+        this.betweenWindows = task;
+        return this;
+    }
+
+    public SimulationReport run(long simulatedSeconds) throws InterruptedException {
+        long windows = (simulatedSeconds + windowSeconds - 1) / windowSeconds;
+        long[][] arrivals = new long[gates][TYPES.length];
+        long[][] rejections = new long[gates][TYPES.length];
+        long[] departures = new long[gates];
+        double[] peak = new double[TYPES.length];
+        // the lot may have served traffic before, so everything is reported for this run only
+        long rejectedBefore = lot.metrics.rejectedCount();
+        long parkedBefore = lot.metrics.parkedCount();
+        LatencyHistogram entryBefore = lot.metrics.entryLatency.copy();
+        LatencyHistogram exitBefore = lot.metrics.exitLatency.copy();
+
+        // the last gate to finish a window samples occupancy before the next window opens
+        Phaser windowBarrier = new Phaser(gates) {
+            @Override
+            protected boolean onAdvance(int phase, int parties) {
+                for(VehicleType type: TYPES) {
+                    peak[type.ordinal()] = Math.max(peak[type.ordinal()], occupancy(type));
+                }
+                if(betweenWindows != null) betweenWindows.run();
+                return phase + 1 >= windows || parties == 0;
+            }
+        };
+        Thread[] workers = new Thread[gates];
+        for(int g = 0; g < gates; g++) {
+            int gate = g;
+            workers[g] = new Thread(() -> runGate(gate, windows, windowBarrier, arrivals[gate], rejections[gate], departures), "sim-gate-" + g);
+        }
+        long start = System.nanoTime();
+        for(Thread worker: workers) {
+            worker.start();
+        }
+        for(Thread worker: workers) {
+            worker.join();
+        }
+
+        SimulationReport report = new SimulationReport();
+        report.wallNanos = System.nanoTime() - start;
+        report.simulatedSeconds = windows * windowSeconds;
+        for(int g = 0; g < gates; g++) {
+            report.departures += departures[g];
+            for(VehicleType type: TYPES) {
+                report.arrivals += arrivals[g][type.ordinal()];
+                report.arrivalsByType.merge(type, arrivals[g][type.ordinal()], Long::sum);
+                report.rejectionsByType.merge(type, rejections[g][type.ordinal()], Long::sum);
+            }
+        }
+        for(VehicleType type: TYPES) {
+            report.peakOccupancy.put(type, peak[type.ordinal()]);
+            report.finalOccupancy.put(type, occupancy(type));
+        }
+        long rejected = lot.metrics.rejectedCount() - rejectedBefore;
+        long attempts = lot.metrics.parkedCount() - parkedBefore + rejected;
+        report.rejectionRate = attempts == 0 ? 0 : (double) rejected / attempts;
+        LatencyHistogram entry = lot.metrics.entryLatency.since(entryBefore);
+        LatencyHistogram exit = lot.metrics.exitLatency.since(exitBefore);
+        report.entryP50 = entry.percentile(50);
+        report.entryP99 = entry.percentile(99);
+        report.entryP999 = entry.percentile(99.9);
+        report.exitP99 = exit.percentile(99);
+        return report;
+    }
+
+    private void runGate(int gate, long windows, Phaser windowBarrier, long[] arrivals, long[] rejections, long[] departures) {
+        Random random = new Random(seed * 31 + gate);
+        PriorityQueue<SimEvent> events = new PriorityQueue<>(Comparator.comparingDouble((SimEvent event) -> event.time));
+        for(VehicleType type: TYPES) {
+            Distribution gaps = profile.secondsBetweenArrivals.get(type);
+            if(gaps != null) events.add(new SimEvent(gaps.sample(random), ARRIVAL, type, null));
+        }
+        long nextPlate = 0;
+        for(long window = 1; window <= windows; window++) {
+            double windowEnd = window * windowSeconds;
+            while(!events.isEmpty() && events.peek().time < windowEnd) {
+                SimEvent event = events.poll();
+                if(event.kind == DEPARTURE) {
+                    if(lot.unparkVehicle(event.vehicle)) departures[gate]++;
+                    continue;
+                }
+                Vehicle vehicle = new Vehicle("G" + gate + "-" + nextPlate++, event.type);
+                arrivals[event.type.ordinal()]++;
+                if(lot.parkVehicle(vehicle, gate)) {
+                    double stay = Math.max(0, profile.secondsParked.get(event.type).sample(random));
+                    events.add(new SimEvent(event.time + stay, DEPARTURE, event.type, vehicle));
+                } else {
+                    rejections[event.type.ordinal()]++;
+                }
+                double gap = Math.max(1e-3, profile.secondsBetweenArrivals.get(event.type).sample(random));
+                events.add(new SimEvent(event.time + gap, ARRIVAL, event.type, null));
+            }
+            windowBarrier.arriveAndAwaitAdvance();
+        }
+    }
+
+    private double occupancy(VehicleType type) {
+        int capacity = lot.availability.capacity(type);
+        return capacity == 0 ? 0 : (double) lot.getOccupiedSpots(type) / capacity;
+    }
+
+    // Rush hour against a few spot mixes: java TrafficSimulator [gates] [hours]
+    public static void main(String[] args) throws InterruptedException {
+        int gates = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long hours = args.length > 1 ? Long.parseLong(args[1]) : 4;
+        double[][] mixes = {{0.50, 0.40}, {0.30, 0.60}, {0.20, 0.65}};
+        // per gate: a car every 4 s, a bike every 10 s, a truck every 40 s; cars stay ~1 h
+        TrafficProfile rushHour = new TrafficProfile()
+                .traffic(VehicleType.CAR, Distribution.exponential(4), Distribution.logNormal(3600, 0.6))
+                .traffic(VehicleType.MOTORCYCLE, Distribution.exponential(10), Distribution.logNormal(1800, 0.8))
+                .traffic(VehicleType.TRUCK, Distribution.exponential(40), Distribution.uniform(600, 5400));
+        for(double[] mix: mixes) {
+            ParkingLot lot = new ParkingLot(true, null);
+            for(int floor = 1; floor <= 4; floor++) {
+                Level level = new Level(floor, 5_000, mix[0], mix[1], true, false);
+                level.placeEntrances(1, 2_500, 5_000);
+                lot.addLevel(level);
+            }
+            System.out.printf("Spot mix bikes/cars/trucks %.0f/%.0f/%.0f%%, %d gates%n",
+                    mix[0] * 100, mix[1] * 100, (1 - mix[0] - mix[1]) * 100, gates);
+            System.out.println(new TrafficSimulator(lot, rushHour, gates, 60, 42).run(hours * 3600));
+        }
+
+        // the default mix again, but with a fifth of each level flexible, overflow allowed and a rebalancer
+        ParkingLot adaptive = new ParkingLot(true, null);
+        for(int floor = 1; floor <= 4; floor++) {
+            Level level = new Level(floor, 5_000, true);
+            level.markFlexible(IntStream.range(0, 1_000).map(k -> k * 5).toArray());
+            level.placeEntrances(1, 2_500, 5_000);
+            adaptive.addLevel(level);
+        }
+        adaptive.setOverflowRules(OverflowRules.smallerIntoLarger());
+        SpotRebalancer rebalancer = new SpotRebalancer(adaptive, 200, 0.9, 0.75);
+        System.out.printf("Spot mix bikes/cars/trucks 50/40/10%%, 20%% flexible with overflow and rebalancing, %d gates%n", gates);
+        System.out.println(new TrafficSimulator(adaptive, rushHour, gates, 60, 42).betweenWindows(rebalancer::rebalance).run(hours * 3600));
+    }
+}
 
 class Main {
     public static void main(String[] args) {
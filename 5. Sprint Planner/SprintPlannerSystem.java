@@ -1,24 +1,99 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 
 // Enum for Task Status
 enum TaskStatus {
     TODO, IN_PROGRESS, DONE
 }
 
+// Receives task changes. Tasks report to their sprint, and the sprint forwards every
+// change, plus tasks entering and leaving it, to the planner's index. Calls for one task
+// are made while holding that task's monitor, so they arrive in version order.
+interface TaskChangeListener {
+    default void taskAdded(Sprint sprint, Task task, TaskState state) {
+    }
+
+    default void taskRemoved(Sprint sprint, Task task, TaskState state) {
+    }
+
+    void taskChanged(Task task, TaskState previous, TaskState current);
+}
+
+// Immutable snapshot of a task's editable fields. Every successful change bumps the version.
+final class TaskState {
+    // every new task starts here, so they can all share one instance
+    static final TaskState INITIAL = new TaskState(TaskStatus.TODO, null, 0);
+
+    private final TaskStatus status;
+    private final String assignedTo;
+    private final long version;
+
+    TaskState(TaskStatus status, String assignedTo, long version) {
+        this.status = status;
+        this.assignedTo = assignedTo;
+        this.version = version;
+    }
+
+    public TaskStatus getStatus() {
+        return status;
+    }
+
+    public String getAssignedTo() {
+        return assignedTo;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
+
 // Class representing a task
 class Task {
     private int taskId;
     private String description;
     private int estimatedHours; // Effort in hours
-    private TaskStatus status;
-    private String assignedTo;
+    // Readers only load this reference, so they never wait for a writer. Writers of the same
+    // task serialize on the task's monitor so listeners see its changes in version order.
+    private static final AtomicReferenceFieldUpdater<Task, TaskState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Task.class, TaskState.class, "state");
+    private volatile TaskState state;
+    // the sprint holding the task, which also receives its changes; written under this
+    private volatile Sprint sprint;
 
     public Task(int taskId, String description, int estimatedHours) {
+        this(taskId, description, estimatedHours, TaskState.INITIAL);
+    }
+
+    // Used by recovery to bring back a task as it was
+    Task(int taskId, String description, int estimatedHours, TaskState state) {
         this.taskId = taskId;
         this.description = description;
         this.estimatedHours = estimatedHours;
-        this.status = TaskStatus.TODO;
-        this.assignedTo = null;
+        this.state = state;
     }
 
     public int getTaskId() {
@@ -33,40 +108,170 @@ class Task {
         return estimatedHours;
     }
 
+    public TaskState getState() {
+        return state;
+    }
+
+    public long getVersion() {
+        return state.getVersion();
+    }
+
     public TaskStatus getStatus() {
-        return status;
+        return state.getStatus();
     }
 
-    public void setStatus(TaskStatus status) {
-        this.status = status;
+    // Last writer wins; use compareAndSet to detect concurrent edits
+    public synchronized void setStatus(TaskStatus status) {
+        TaskState current = state;
+        apply(current, new TaskState(status, current.getAssignedTo(), current.getVersion() + 1));
     }
 
     public String getAssignedTo() {
-        return assignedTo;
+        return state.getAssignedTo();
     }
 
-    public void assignTo(String developer) {
-        this.assignedTo = developer;
+    public synchronized void assignTo(String developer) {
+        TaskState current = state;
+        apply(current, new TaskState(current.getStatus(), developer, current.getVersion() + 1));
+    }
+
+    // Applies the edit only if nobody changed the task since expectedVersion was read
+    public synchronized boolean compareAndSet(long expectedVersion, TaskStatus status, String developer) {
+        TaskState current = state;
+        if (current.getVersion() != expectedVersion) {
+            return false;
+        }
+        apply(current, new TaskState(status, developer, expectedVersion + 1));
+        return true;
+    }
+
+    // Used by recovery; replaces the state, version included, and notifies like any other edit
+    synchronized void restoreState(TaskState restored) {
+        apply(state, restored);
+    }
+
+    private void apply(TaskState current, TaskState next) {
+        if (!STATE.compareAndSet(this, current, next)) {
+            throw new IllegalStateException("Task " + taskId + " changed without holding its lock");
+        }
+        if (sprint != null) {
+            sprint.taskChanged(this, current, next);
+        }
+    }
+
+    public Sprint getSprint() {
+        return sprint;
+    }
+
+    synchronized void setSprint(Sprint sprint) {
+        this.sprint = sprint;
+    }
+
+    // A task is identified by its ID, which also makes a cheap hash for the index sets
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof Task && ((Task) other).taskId == taskId);
+    }
+
+    @Override
+    public int hashCode() {
+        return taskId;
     }
 
     public String display() {
+        TaskState current = state;
+        String assignedTo = current.getAssignedTo();
         return "Task ID: " + taskId + ", Description: " + description + ", Estimated Hours: " + estimatedHours
-                + ", Status: " + status + ", Assigned To: " + (assignedTo == null ? "None" : assignedTo);
+                + ", Status: " + current.getStatus() + ", Assigned To: " + (assignedTo == null ? "None" : assignedTo)
+                + ", Version: " + current.getVersion();
+    }
+}
+
+// Running hours and task counts per status, adjusted on every change instead of recomputed.
+// The counters are atomic so dashboards can read while tasks change; a status change is a
+// remove followed by an add, so a reader may briefly see a task counted in neither status.
+class EffortTotals {
+    private static final int STATUSES = TaskStatus.values().length;
+    private final AtomicIntegerArray hours = new AtomicIntegerArray(STATUSES);
+    private final AtomicIntegerArray tasks = new AtomicIntegerArray(STATUSES);
+
+    void add(TaskStatus status, int estimatedHours) {
+        hours.addAndGet(status.ordinal(), estimatedHours);
+        tasks.incrementAndGet(status.ordinal());
+    }
+
+    // Adds taskCount tasks of one status and their combined hours at once
+    void add(TaskStatus status, int estimatedHours, int taskCount) {
+        hours.addAndGet(status.ordinal(), estimatedHours);
+        tasks.addAndGet(status.ordinal(), taskCount);
+    }
+
+    void remove(TaskStatus status, int estimatedHours) {
+        hours.addAndGet(status.ordinal(), -estimatedHours);
+        tasks.decrementAndGet(status.ordinal());
+    }
+
+    public int getHours(TaskStatus status) {
+        return hours.get(status.ordinal());
+    }
+
+    public int getTaskCount(TaskStatus status) {
+        return tasks.get(status.ordinal());
+    }
+
+    public int getTotalHours() {
+        int total = 0;
+        for (int i = 0; i < STATUSES; i++) {
+            total += hours.get(i);
+        }
+        return total;
+    }
+
+    public int getTotalTasks() {
+        int total = 0;
+        for (int i = 0; i < STATUSES; i++) {
+            total += tasks.get(i);
+        }
+        return total;
+    }
+
+    public int getRemainingHours() {
+        return getTotalHours() - getHours(TaskStatus.DONE);
+    }
+
+    // Share of estimated hours that is DONE, 0-100
+    public double getPercentComplete() {
+        int total = getTotalHours();
+        return total == 0 ? 0.0 : 100.0 * getHours(TaskStatus.DONE) / total;
     }
 }
 
 // Class representing a sprint
-class Sprint {
+class Sprint implements TaskChangeListener {
     private int sprintId;
     private String sprintName;
     private int durationInDays; // Duration of the sprint
-    private List<Task> tasks;
+    // keyed by task ID; insertion order, or hash order when the sprint is shared between threads
+    private Map<Integer, Task> tasks;
+    private TaskChangeListener listener;
+    // told after the planner's listener, e.g. an auto planner following this sprint
+    private final List<TaskChangeListener> observers = new CopyOnWriteArrayList<>();
+    private final boolean concurrent;
+    private final EffortTotals effort = new EffortTotals();
+    // entries are never removed, so concurrent writers never race a removal
+    private final Map<String, EffortTotals> effortByAssignee;
 
     public Sprint(int sprintId, String sprintName, int durationInDays) {
+        this(sprintId, sprintName, durationInDays, false);
+    }
+
+    public Sprint(int sprintId, String sprintName, int durationInDays, boolean concurrent) {
         this.sprintId = sprintId;
         this.sprintName = sprintName;
         this.durationInDays = durationInDays;
-        this.tasks = new ArrayList<>();
+        this.concurrent = concurrent;
+        this.tasks = concurrent ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+        this.effortByAssignee = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
     }
 
     public int getSprintId() {
@@ -81,28 +286,148 @@ class Sprint {
         return durationInDays;
     }
 
-    public List<Task> getTasks() {
-        return tasks;
+    public Collection<Task> getTasks() {
+        return Collections.unmodifiableCollection(tasks.values());
+    }
+
+    public Task getTask(int taskId) {
+        return tasks.get(taskId);
+    }
+
+    public void setListener(TaskChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public void addObserver(TaskChangeListener observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(TaskChangeListener observer) {
+        observers.remove(observer);
     }
 
     public void addTask(Task task) {
-        tasks.add(task);
+        synchronized (task) {
+            if (tasks.putIfAbsent(task.getTaskId(), task) != null) {
+                throw new IllegalArgumentException("Task " + task.getTaskId() + " is already in sprint " + sprintId);
+            }
+            task.setSprint(this);
+            TaskState state = task.getState();
+            addEffort(task, state);
+            // observers hear of the change even if the planner's listener throws
+            try {
+                if (listener != null) {
+                    listener.taskAdded(this, task, state);
+                }
+            } finally {
+                for (TaskChangeListener observer : observers) {
+                    observer.taskAdded(this, task, state);
+                }
+            }
+        }
+    }
+
+    public Task removeTask(int taskId) {
+        Task task = tasks.get(taskId);
+        if (task == null) {
+            return null;
+        }
+        synchronized (task) {
+            if (!tasks.remove(taskId, task)) {
+                return null;
+            }
+            task.setSprint(null);
+            TaskState state = task.getState();
+            removeEffort(task, state);
+            try {
+                if (listener != null) {
+                    listener.taskRemoved(this, task, state);
+                }
+            } finally {
+                for (TaskChangeListener observer : observers) {
+                    observer.taskRemoved(this, task, state);
+                }
+            }
+        }
+        return task;
+    }
+
+    // Recovery only: fills this new, not yet shared sprint in one pass. The task map is created
+    // at its final size, the sprint-wide totals are summed locally, and no listener is told.
+    void load(List<Task> loaded) {
+        if (!tasks.isEmpty()) {
+            throw new IllegalStateException("Sprint " + sprintId + " already has tasks");
+        }
+        int capacity = concurrent ? loaded.size() : (int) (loaded.size() / 0.75f) + 1;
+        tasks = concurrent ? new ConcurrentHashMap<>(capacity) : new LinkedHashMap<>(capacity);
+        int[] hours = new int[TaskStatus.values().length];
+        int[] counts = new int[hours.length];
+        for (Task task : loaded) {
+            tasks.put(task.getTaskId(), task);
+            task.setSprint(this);
+            TaskState state = task.getState();
+            hours[state.getStatus().ordinal()] += task.getEstimatedHours();
+            counts[state.getStatus().ordinal()]++;
+            if (state.getAssignedTo() != null) {
+                effortByAssignee.computeIfAbsent(state.getAssignedTo(), d -> new EffortTotals())
+                        .add(state.getStatus(), task.getEstimatedHours());
+            }
+        }
+        for (TaskStatus status : TaskStatus.values()) {
+            effort.add(status, hours[status.ordinal()], counts[status.ordinal()]);
+        }
     }
 
-    public void removeTask(int taskId) {
-        tasks.removeIf(task -> task.getTaskId() == taskId);
+    @Override
+    public void taskChanged(Task task, TaskState previous, TaskState current) {
+        removeEffort(task, previous);
+        addEffort(task, current);
+        try {
+            if (listener != null) {
+                listener.taskChanged(task, previous, current);
+            }
+        } finally {
+            for (TaskChangeListener observer : observers) {
+                observer.taskChanged(task, previous, current);
+            }
+        }
     }
 
     public int calculateRemainingEffort() {
-        List<Task> pendingTasks = tasks.stream()
-                                   .filter(task -> task.getStatus() != TaskStatus.DONE)
-                                   .toList();
-    
-    // Calculate the total effort for pending tasks
-        int totalEffort = pendingTasks.stream()
-                                  .mapToInt(Task::getEstimatedHours)
-                                  .sum();
-        return totalEffort;
+        return effort.getRemainingHours();
+    }
+
+    public EffortTotals getEffort() {
+        return effort;
+    }
+
+    // Hours assigned to the developer that are not DONE yet
+    public int getRemainingEffort(String developer) {
+        EffortTotals totals = effortByAssignee.get(developer);
+        return totals == null ? 0 : totals.getRemainingHours();
+    }
+
+    public EffortTotals getEffort(String developer) {
+        return effortByAssignee.get(developer);
+    }
+
+    public double getPercentComplete() {
+        return effort.getPercentComplete();
+    }
+
+    private void addEffort(Task task, TaskState state) {
+        effort.add(state.getStatus(), task.getEstimatedHours());
+        if (state.getAssignedTo() != null) {
+            effortByAssignee.computeIfAbsent(state.getAssignedTo(), d -> new EffortTotals())
+                    .add(state.getStatus(), task.getEstimatedHours());
+        }
+    }
+
+    private void removeEffort(Task task, TaskState state) {
+        effort.remove(state.getStatus(), task.getEstimatedHours());
+        if (state.getAssignedTo() != null) {
+            effortByAssignee.get(state.getAssignedTo()).remove(state.getStatus(), task.getEstimatedHours());
+        }
     }
 
     public String display() {
@@ -111,83 +436,1452 @@ class Sprint {
                 .append(", Name: ").append(sprintName)
                 .append(", Duration: ").append(durationInDays).append(" days\n");
 
-        for (Task task : tasks) {
+        for (Task task : tasks.values()) {
             builder.append(task.display()).append("\n");
         }
         return builder.toString();
     }
 }
 
+// Planner-wide task lookups by ID, by assignee and by status. Sprints report every change
+// through TaskChangeListener, so lookups, moves and removals never scan a sprint.
+class TaskIndex implements TaskChangeListener {
+    private final boolean concurrent;
+    private Map<Integer, Task> tasksById;
+    private final Map<TaskStatus, Set<Task>> tasksByStatus = new EnumMap<>(TaskStatus.class);
+    // assignee -> status -> tasks; unassigned tasks are only in tasksByStatus
+    private final Map<String, Map<TaskStatus, Set<Task>>> tasksByAssignee;
+
+    public TaskIndex() {
+        this(false);
+    }
+
+    public TaskIndex(boolean concurrent) {
+        this.concurrent = concurrent;
+        this.tasksById = newMap();
+        this.tasksByAssignee = newMap();
+        for (TaskStatus status : TaskStatus.values()) {
+            tasksByStatus.put(status, newSet());
+        }
+    }
+
+    public Task getTask(int taskId) {
+        return tasksById.get(taskId);
+    }
+
+    public Sprint getSprintOf(int taskId) {
+        Task task = tasksById.get(taskId);
+        return task == null ? null : task.getSprint();
+    }
+
+    public int size() {
+        return tasksById.size();
+    }
+
+    public Collection<Task> getTasks(TaskStatus status) {
+        return Collections.unmodifiableSet(tasksByStatus.get(status));
+    }
+
+    public Collection<Task> getTasks(String developer, TaskStatus status) {
+        Map<TaskStatus, Set<Task>> byStatus = tasksByAssignee.get(developer);
+        return byStatus == null ? Collections.emptySet() : Collections.unmodifiableSet(byStatus.get(status));
+    }
+
+    public List<Task> getTasks(String developer) {
+        Map<TaskStatus, Set<Task>> byStatus = tasksByAssignee.get(developer);
+        List<Task> result = new ArrayList<>();
+        if (byStatus != null) {
+            for (Set<Task> tasks : byStatus.values()) {
+                result.addAll(tasks);
+            }
+        }
+        return result;
+    }
+
+    // Recovery only: indexes tasks into this empty index before the planner is shared. Every
+    // map and set is created at its final size from a counting pass, so none of them grows.
+    void load(List<Task> tasks) {
+        if (!tasksById.isEmpty()) {
+            throw new IllegalStateException("Only an empty index can be loaded in bulk");
+        }
+        int[] perStatus = new int[TaskStatus.values().length];
+        Map<String, int[]> perAssignee = new HashMap<>();
+        for (Task task : tasks) {
+            TaskState state = task.getState();
+            perStatus[state.getStatus().ordinal()]++;
+            if (state.getAssignedTo() != null) {
+                perAssignee.computeIfAbsent(state.getAssignedTo(), d -> new int[perStatus.length])[state.getStatus().ordinal()]++;
+            }
+        }
+        tasksById = newMap(tasks.size());
+        for (TaskStatus status : TaskStatus.values()) {
+            tasksByStatus.put(status, newSet(perStatus[status.ordinal()]));
+        }
+        for (Map.Entry<String, int[]> assignee : perAssignee.entrySet()) {
+            Map<TaskStatus, Set<Task>> byStatus = new EnumMap<>(TaskStatus.class);
+            for (TaskStatus status : TaskStatus.values()) {
+                byStatus.put(status, newSet(assignee.getValue()[status.ordinal()]));
+            }
+            tasksByAssignee.put(assignee.getKey(), byStatus);
+        }
+        for (Task task : tasks) {
+            TaskState state = task.getState();
+            tasksById.put(task.getTaskId(), task);
+            tasksByStatus.get(state.getStatus()).add(task);
+            if (state.getAssignedTo() != null) {
+                tasksByAssignee.get(state.getAssignedTo()).get(state.getStatus()).add(task);
+            }
+        }
+    }
+
+    @Override
+    public void taskAdded(Sprint sprint, Task task, TaskState state) {
+        tasksById.put(task.getTaskId(), task);
+        tasksByStatus.get(state.getStatus()).add(task);
+        addToAssignee(state, task);
+    }
+
+    @Override
+    public void taskRemoved(Sprint sprint, Task task, TaskState state) {
+        tasksById.remove(task.getTaskId());
+        tasksByStatus.get(state.getStatus()).remove(task);
+        removeFromAssignee(state, task);
+    }
+
+    @Override
+    public void taskChanged(Task task, TaskState previous, TaskState current) {
+        if (previous.getStatus() != current.getStatus()) {
+            tasksByStatus.get(previous.getStatus()).remove(task);
+            tasksByStatus.get(current.getStatus()).add(task);
+        }
+        removeFromAssignee(previous, task);
+        addToAssignee(current, task);
+    }
+
+    // Per-assignee entries are never removed, so concurrent writers never race a removal
+    private void addToAssignee(TaskState state, Task task) {
+        if (state.getAssignedTo() == null) {
+            return;
+        }
+        tasksByAssignee.computeIfAbsent(state.getAssignedTo(), d -> {
+            Map<TaskStatus, Set<Task>> byStatus = new EnumMap<>(TaskStatus.class);
+            for (TaskStatus s : TaskStatus.values()) {
+                byStatus.put(s, newSet());
+            }
+            return byStatus;
+        }).get(state.getStatus()).add(task);
+    }
+
+    private void removeFromAssignee(TaskState state, Task task) {
+        if (state.getAssignedTo() != null) {
+            tasksByAssignee.get(state.getAssignedTo()).get(state.getStatus()).remove(task);
+        }
+    }
+
+    private <K, V> Map<K, V> newMap() {
+        return concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    private Set<Task> newSet() {
+        return concurrent ? ConcurrentHashMap.newKeySet() : new LinkedHashSet<>();
+    }
+
+    // Sized to hold the given number of entries without growing
+    private <K, V> Map<K, V> newMap(int size) {
+        return concurrent ? new ConcurrentHashMap<>(size) : new HashMap<>((int) (size / 0.75f) + 1);
+    }
+
+    private Set<Task> newSet(int size) {
+        return concurrent ? ConcurrentHashMap.newKeySet(size) : new LinkedHashSet<>((int) (size / 0.75f) + 1);
+    }
+}
+
 // Sprint Planner class
 class SprintPlanner {
     public Map<Integer, Sprint> sprints;
-    private int nextTaskId;
+    private final AtomicInteger nextTaskId;
+    private final boolean concurrent;
+    private final TaskIndex index;
+    // the auto planner following each sprint, if any
+    private final Map<Integer, SprintAutoPlanner> autoPlanners;
+    private volatile PlannerJournal journal;
+    // sprints report to the index first and then to the journal, so every logged change is
+    // already visible to a snapshot that starts after it
+    private final TaskChangeListener changes = new TaskChangeListener() {
+        @Override
+        public void taskAdded(Sprint sprint, Task task, TaskState state) {
+            index.taskAdded(sprint, task, state);
+            PlannerJournal current = journal;
+            if (current != null) {
+                current.logTaskAdded(sprint.getSprintId(), task, state);
+            }
+        }
+
+        @Override
+        public void taskRemoved(Sprint sprint, Task task, TaskState state) {
+            index.taskRemoved(sprint, task, state);
+            PlannerJournal current = journal;
+            if (current != null) {
+                current.logTaskRemoved(task.getTaskId());
+            }
+        }
+
+        @Override
+        public void taskChanged(Task task, TaskState previous, TaskState current) {
+            index.taskChanged(task, previous, current);
+            PlannerJournal log = journal;
+            if (log != null) {
+                log.logTaskChanged(task.getTaskId(), current);
+            }
+        }
+    };
+    // where the outcome of every call is printed; null keeps the planner quiet
+    private final PrintStream console;
 
     public SprintPlanner() {
-        this.sprints = new HashMap<>();
-        this.nextTaskId = 1;
+        this(false);
+    }
+
+    // A concurrent planner may be shared between threads: sprints, sprint contents and the
+    // index use concurrent collections, and readers never take a lock.
+    public SprintPlanner(boolean concurrent) {
+        this(concurrent, System.out);
+    }
+
+    public SprintPlanner(boolean concurrent, PrintStream console) {
+        this.concurrent = concurrent;
+        this.console = console;
+        this.sprints = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.nextTaskId = new AtomicInteger(1);
+        this.index = new TaskIndex(concurrent);
+        this.autoPlanners = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    public TaskIndex getIndex() {
+        return index;
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    int peekNextTaskId() {
+        return nextTaskId.get();
+    }
+
+    public void setJournal(PlannerJournal journal) {
+        this.journal = journal;
     }
 
-    public void createSprint(int sprintId, String sprintName, int durationInDays) {
+    // Synchronized so the sprint is logged before anyone can add tasks to it; sprints are
+    // created rarely and readers of the map are not affected
+    public synchronized void createSprint(int sprintId, String sprintName, int durationInDays) {
         if (sprints.containsKey(sprintId)) {
-            System.out.println("Sprint with ID " + sprintId + " already exists.");
+            print("Sprint with ID " + sprintId + " already exists.");
             return;
         }
-        Sprint sprint = new Sprint(sprintId, sprintName, durationInDays);
+        Sprint sprint = newSprint(sprintId, sprintName, durationInDays);
+        PlannerJournal current = journal;
+        if (current != null) {
+            current.logSprintCreated(sprintId, sprintName, durationInDays);
+        }
         sprints.put(sprintId, sprint);
-        System.out.println("Sprint created:\n" + sprint.display());
+        if (console != null) {
+            console.println("Sprint created:\n" + sprint.display());
+        }
     }
 
     public void addTaskToSprint(int sprintId, String description, int estimatedHours) {
         Sprint sprint = sprints.get(sprintId);
         if (sprint == null) {
-            System.out.println("Sprint with ID " + sprintId + " not found.");
+            print("Sprint with ID " + sprintId + " not found.");
             return;
         }
-        Task task = new Task(nextTaskId++, description, estimatedHours);
+        Task task = new Task(nextTaskId.getAndIncrement(), description, estimatedHours);
         sprint.addTask(task);
-        System.out.println("Task added to sprint:\n" + task.display());
+        if (console != null) {
+            console.println("Task added to sprint:\n" + task.display());
+        }
     }
 
     public void assignTask(int sprintId, int taskId, String developer) {
         Sprint sprint = sprints.get(sprintId);
         if (sprint == null) {
-            System.out.println("Sprint with ID " + sprintId + " not found.");
+            print("Sprint with ID " + sprintId + " not found.");
             return;
         }
-        for (Task task : sprint.getTasks()) {
-            if (task.getTaskId() == taskId) {
-                task.assignTo(developer);
-                System.out.println("Task assigned:\n" + task.display());
-                return;
-            }
+        Task task = findTask(sprint, taskId);
+        if (task == null) {
+            return;
+        }
+        task.assignTo(developer);
+        if (console != null) {
+            console.println("Task assigned:\n" + task.display());
         }
-        System.out.println("Task with ID " + taskId + " not found in sprint.");
     }
 
     public void updateTaskStatus(int sprintId, int taskId, TaskStatus status) {
         Sprint sprint = sprints.get(sprintId);
         if (sprint == null) {
-            System.out.println("Sprint with ID " + sprintId + " not found.");
+            print("Sprint with ID " + sprintId + " not found.");
+            return;
+        }
+        Task task = findTask(sprint, taskId);
+        if (task == null) {
+            return;
+        }
+        task.setStatus(status);
+        if (console != null) {
+            console.println("Task status updated:\n" + task.display());
+        }
+    }
+
+    // Optimistic edit: fails instead of overwriting when the task changed after the caller
+    // read expectedVersion, so the caller can reload and retry
+    public boolean updateTask(int sprintId, int taskId, long expectedVersion, TaskStatus status, String developer) {
+        Sprint sprint = sprints.get(sprintId);
+        if (sprint == null) {
+            print("Sprint with ID " + sprintId + " not found.");
+            return false;
+        }
+        Task task = findTask(sprint, taskId);
+        if (task == null) {
+            return false;
+        }
+        if (!task.compareAndSet(expectedVersion, status, developer)) {
+            if (console != null) {
+                console.println("Task with ID " + taskId + " was changed concurrently (expected version "
+                        + expectedVersion + ", found " + task.getVersion() + ").");
+            }
+            return false;
+        }
+        if (console != null) {
+            console.println("Task updated:\n" + task.display());
+        }
+        return true;
+    }
+
+    public void moveTask(int taskId, int toSprintId) {
+        Sprint target = sprints.get(toSprintId);
+        if (target == null) {
+            print("Sprint with ID " + toSprintId + " not found.");
             return;
         }
-        for (Task task : sprint.getTasks()) {
-            if (task.getTaskId() == taskId) {
-                task.setStatus(status);
-                System.out.println("Task status updated:\n" + task.display());
+        Task task = index.getTask(taskId);
+        if (task == null) {
+            print("Task with ID " + taskId + " not found.");
+            return;
+        }
+        // holding the task keeps a concurrent move or removal from interleaving with this one
+        synchronized (task) {
+            Sprint source = index.getSprintOf(taskId);
+            if (source == null) {
+                print("Task with ID " + taskId + " not found.");
+                return;
+            }
+            if (source == target) {
                 return;
             }
+            // a journal that stopped writing fails both halves after they are applied, so the
+            // task still lands in the target before the error is passed on
+            try {
+                source.removeTask(taskId);
+            } finally {
+                target.addTask(task);
+            }
+        }
+        if (console != null) {
+            console.println("Task moved to sprint " + toSprintId + ":\n" + task.display());
+        }
+    }
+
+    public void removeTask(int sprintId, int taskId) {
+        Sprint sprint = sprints.get(sprintId);
+        if (sprint == null) {
+            print("Sprint with ID " + sprintId + " not found.");
+            return;
+        }
+        Task task = sprint.removeTask(taskId);
+        if (task == null) {
+            print("Task with ID " + taskId + " not found in sprint.");
+            return;
+        }
+        if (console != null) {
+            console.println("Task removed:\n" + task.display());
         }
-        System.out.println("Task with ID " + taskId + " not found in sprint.");
+    }
+
+    public Collection<Task> getTasks(String developer, TaskStatus status) {
+        return index.getTasks(developer, status);
+    }
+
+    // Assigns the sprint's open tasks within each developer's hours. The returned planner then
+    // follows every change to the sprint and adjusts the plan incrementally, until it is
+    // detached or the sprint is auto-assigned again.
+    public SprintAutoPlanner autoAssign(int sprintId, Map<String, Integer> hoursPerDay) {
+        Sprint sprint = sprints.get(sprintId);
+        if (sprint == null) {
+            print("Sprint with ID " + sprintId + " not found.");
+            return null;
+        }
+        SprintAutoPlanner autoPlanner = new SprintAutoPlanner(sprint, hoursPerDay);
+        SprintAutoPlanner previous = autoPlanners.put(sprintId, autoPlanner);
+        if (previous != null) {
+            previous.detach();
+        }
+        int assigned = autoPlanner.plan();
+        if (console != null) {
+            console.println("Auto-assigned " + assigned + " tasks in sprint " + sprintId + ", "
+                    + autoPlanner.getWaitingTasks().size() + " tasks (" + autoPlanner.getWaitingHours()
+                    + " hours) do not fit.");
+        }
+        return autoPlanner;
+    }
+
+    // O(1) through the index; the sprint check keeps the per-sprint API's "not found" semantics
+    private Task findTask(Sprint sprint, int taskId) {
+        Task task = index.getTask(taskId);
+        if (task == null || index.getSprintOf(taskId) != sprint) {
+            print("Task with ID " + taskId + " not found in sprint.");
+            return null;
+        }
+        return task;
     }
 
     public void viewSprintDetails(int sprintId) {
         Sprint sprint = sprints.get(sprintId);
         if (sprint == null) {
-            System.out.println("Sprint with ID " + sprintId + " not found.");
+            print("Sprint with ID " + sprintId + " not found.");
             return;
         }
-        System.out.println(sprint.display());
+        print(sprint.display());
+    }
+
+    // For messages that are cheap to build; the ones that render a task or sprint after a
+    // successful change check console first, so a quiet planner never builds them
+    private void print(String message) {
+        if (console != null) {
+            console.println(message);
+        }
+    }
+
+    private Sprint newSprint(int sprintId, String sprintName, int durationInDays) {
+        Sprint sprint = new Sprint(sprintId, sprintName, durationInDays, concurrent);
+        sprint.setListener(changes);
+        return sprint;
+    }
+
+    // Recovery only: installs recovered sprints, each with its tasks, into this empty planner.
+    // Every sprint is loaded in one pass and the index is built from all tasks at once, so
+    // none of the per-task listener calls of addTask are made.
+    void restore(Map<Sprint, List<Task>> recovered, int nextTaskId) {
+        if (!sprints.isEmpty()) {
+            throw new IllegalStateException("Only an empty planner can be restored");
+        }
+        List<Task> allTasks = new ArrayList<>();
+        for (Map.Entry<Sprint, List<Task>> entry : recovered.entrySet()) {
+            Sprint sprint = entry.getKey();
+            sprint.load(entry.getValue());
+            sprint.setListener(changes);
+            sprints.put(sprint.getSprintId(), sprint);
+            allTasks.addAll(entry.getValue());
+        }
+        index.load(allTasks);
+        this.nextTaskId.accumulateAndGet(nextTaskId, Math::max);
+    }
+}
+
+// Capacity-aware auto-assignment for one sprint. A developer can take durationInDays x
+// hoursPerDay hours, and tasks already assigned to them count against that. plan() takes the
+// unassigned, not DONE tasks largest first and gives each to the developer with the most
+// hours left (worst-fit decreasing, which also evens out the load). Tasks that fit nobody
+// wait until capacity frees up. The planner observes its sprint, so every task that changes,
+// joins or leaves it is re-planned on its own instead of recomputing the plan. Assignments go
+// through Task.compareAndSet, so a task edited concurrently is left alone rather than
+// overwritten.
+//
+// Changes arrive while their task's monitor is held, and re-planning assigns other tasks,
+// which takes theirs. So a change is only queued, and whichever thread holds the planner's
+// lock re-plans everything queued before releasing it; nobody waits for the lock while
+// holding a task.
+class SprintAutoPlanner implements TaskChangeListener {
+    private static class Load {
+        final String developer;
+        int capacity;
+        int used;
+
+        Load(String developer, int capacity) {
+            this.developer = developer;
+            this.capacity = capacity;
+        }
+
+        int remaining() {
+            return capacity - used;
+        }
+    }
+
+    // most hours left first; ties by name so distinct developers never compare equal
+    private static final Comparator<Load> MOST_REMAINING = Comparator.comparingInt(Load::remaining).reversed()
+            .thenComparing(load -> load.developer);
+
+    private final Sprint sprint;
+    private final ReentrantLock lock = new ReentrantLock();
+    // IDs of tasks changed since they were last re-planned
+    private final Queue<Integer> changed = new ConcurrentLinkedQueue<>();
+    // the task this planner is assigning, whose change it already accounts for; guarded by lock
+    private Task assigning;
+    private final Map<String, Load> loads = new HashMap<>();
+    private final TreeSet<Load> byRemaining = new TreeSet<>(MOST_REMAINING);
+    // task ID -> developer whose load counts it, or null while it waits
+    private final Map<Integer, Load> placements = new HashMap<>();
+    private final Map<Integer, Task> tracked = new HashMap<>();
+    // waiting tasks bucketed by hours, so freed capacity finds the largest task that fits
+    private final TreeMap<Integer, Set<Task>> waiting = new TreeMap<>();
+    private int waitingHours;
+
+    public SprintAutoPlanner(Sprint sprint, Map<String, Integer> hoursPerDay) {
+        this.sprint = sprint;
+        hoursPerDay.forEach((developer, hours) -> {
+            Load load = new Load(developer, sprint.getDurationInDays() * hours);
+            loads.put(developer, load);
+            byRemaining.add(load);
+        });
+        sprint.addObserver(this);
+    }
+
+    // Stops following the sprint; the plan keeps its last state
+    public void detach() {
+        sprint.removeObserver(this);
+        changed.clear();
+    }
+
+    // Places every task of the sprint from scratch; returns how many it assigned
+    public int plan() {
+        lock();
+        try {
+            // the full pass covers anything queued so far
+            changed.clear();
+            tracked.clear();
+            placements.clear();
+            waiting.clear();
+            waitingHours = 0;
+            byRemaining.clear();
+            for (Load load : loads.values()) {
+                load.used = 0;
+                byRemaining.add(load);
+            }
+            List<Task> candidates = new ArrayList<>();
+            for (Task task : sprint.getTasks()) {
+                TaskState state = task.getState();
+                if (state.getAssignedTo() != null) {
+                    trackAssigned(task, state.getAssignedTo());
+                } else if (state.getStatus() != TaskStatus.DONE) {
+                    candidates.add(task);
+                }
+            }
+            candidates.sort(Comparator.comparingInt(Task::getEstimatedHours).reversed());
+            int assigned = 0;
+            for (Task task : candidates) {
+                if (place(task)) {
+                    assigned++;
+                }
+            }
+            return assigned;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void taskAdded(Sprint sprint, Task task, TaskState state) {
+        taskChanged(task);
+    }
+
+    @Override
+    public void taskRemoved(Sprint sprint, Task task, TaskState state) {
+        taskChanged(task);
+    }
+
+    @Override
+    public void taskChanged(Task task, TaskState previous, TaskState current) {
+        taskChanged(task);
+    }
+
+    private void taskChanged(Task task) {
+        if (lock.isHeldByCurrentThread()) {
+            // made by this planner while it re-plans, or queued for it to pick up before unlocking
+            if (task != assigning) {
+                changed.add(task.getTaskId());
+            }
+            return;
+        }
+        changed.add(task.getTaskId());
+        if (lock.tryLock()) {
+            unlock();
+        }
+    }
+
+    // Adds a developer or changes their hours per day, then hands them waiting work
+    public void setHoursPerDay(String developer, int hoursPerDay) {
+        lock();
+        try {
+            Load load = loads.computeIfAbsent(developer, d -> new Load(d, 0));
+            byRemaining.remove(load);
+            load.capacity = sprint.getDurationInDays() * hoursPerDay;
+            byRemaining.add(load);
+            fill(load);
+        } finally {
+            unlock();
+        }
+    }
+
+    public int getRemainingHours(String developer) {
+        lock();
+        try {
+            Load load = loads.get(developer);
+            return load == null ? 0 : load.remaining();
+        } finally {
+            unlock();
+        }
+    }
+
+    public int getWaitingHours() {
+        lock();
+        try {
+            return waitingHours;
+        } finally {
+            unlock();
+        }
+    }
+
+    public List<Task> getWaitingTasks() {
+        lock();
+        try {
+            List<Task> tasks = new ArrayList<>();
+            for (Set<Task> bucket : waiting.descendingMap().values()) {
+                tasks.addAll(bucket);
+            }
+            return tasks;
+        } finally {
+            unlock();
+        }
+    }
+
+    private void lock() {
+        lock.lock();
+        boolean locked = false;
+        try {
+            if (lock.getHoldCount() == 1) {
+                replanChanged();
+            }
+            locked = true;
+        } finally {
+            if (!locked) {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Re-plans what was queued while the lock was held. A change queued between the last poll
+    // and the unlock is taken care of here, or by its own thread if that gets the lock first.
+    private void unlock() {
+        while (true) {
+            try {
+                if (lock.getHoldCount() == 1) {
+                    replanChanged();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (changed.isEmpty() || lock.isHeldByCurrentThread() || !lock.tryLock()) {
+                return;
+            }
+        }
+    }
+
+    private void replanChanged() {
+        Integer taskId;
+        while ((taskId = changed.poll()) != null) {
+            replan(taskId);
+        }
+    }
+
+    // Brings the plan up to date after the task changed, was added to the sprint or left it
+    private void replan(int taskId) {
+        Load released = untrack(taskId);
+        Task task = sprint.getTask(taskId);
+        if (task != null) {
+            TaskState state = task.getState();
+            if (state.getAssignedTo() != null) {
+                trackAssigned(task, state.getAssignedTo());
+            } else if (state.getStatus() != TaskStatus.DONE) {
+                place(task);
+            }
+        }
+        if (released != null) {
+            fill(released);
+        }
+    }
+
+    // Gives the task to the developer with the most hours left, or parks it in waiting
+    private boolean place(Task task) {
+        Load best = byRemaining.isEmpty() ? null : byRemaining.first();
+        if (best != null && best.remaining() >= task.getEstimatedHours() && assign(task, best)) {
+            return true;
+        }
+        if (task.getAssignedTo() == null) {
+            track(task, null);
+        }
+        return false;
+    }
+
+    // Hands the largest waiting tasks that still fit to a developer with free hours
+    private void fill(Load load) {
+        Map.Entry<Integer, Set<Task>> bucket;
+        while ((bucket = waiting.floorEntry(load.remaining())) != null) {
+            Task task = bucket.getValue().iterator().next();
+            untrack(task.getTaskId());
+            if (!assign(task, load) && task.getAssignedTo() == null) {
+                track(task, null);
+                return;
+            }
+        }
+    }
+
+    private boolean assign(Task task, Load load) {
+        TaskState state = task.getState();
+        if (state.getAssignedTo() != null) {
+            return false;
+        }
+        boolean assigned;
+        assigning = task;
+        try {
+            assigned = task.compareAndSet(state.getVersion(), state.getStatus(), load.developer);
+        } catch (RuntimeException e) {
+            // the edit may have been applied before a listener failed; look at the task again later
+            changed.add(task.getTaskId());
+            throw e;
+        } finally {
+            assigning = null;
+        }
+        if (!assigned) {
+            return false;
+        }
+        track(task, load);
+        return true;
+    }
+
+    // Work assigned by hand counts against the developer, even past their capacity;
+    // developers the planner does not know about are not tracked
+    private void trackAssigned(Task task, String developer) {
+        Load load = loads.get(developer);
+        if (load != null) {
+            track(task, load);
+        }
+    }
+
+    private void track(Task task, Load load) {
+        tracked.put(task.getTaskId(), task);
+        placements.put(task.getTaskId(), load);
+        if (load != null) {
+            adjust(load, task.getEstimatedHours());
+        } else {
+            waiting.computeIfAbsent(task.getEstimatedHours(), h -> new LinkedHashSet<>()).add(task);
+            waitingHours += task.getEstimatedHours();
+        }
+    }
+
+    // Forgets the task; returns the developer whose hours it held, if any
+    private Load untrack(int taskId) {
+        Task task = tracked.remove(taskId);
+        if (task == null) {
+            return null;
+        }
+        Load load = placements.remove(taskId);
+        if (load != null) {
+            adjust(load, -task.getEstimatedHours());
+            return load;
+        }
+        Set<Task> bucket = waiting.get(task.getEstimatedHours());
+        bucket.remove(task);
+        if (bucket.isEmpty()) {
+            waiting.remove(task.getEstimatedHours());
+        }
+        waitingHours -= task.getEstimatedHours();
+        return null;
+    }
+
+    private void adjust(Load load, int hours) {
+        byRemaining.remove(load);
+        load.used += hours;
+        byRemaining.add(load);
+    }
+}
+
+// Append-only log of planner events, split into numbered segment files. Callers only
+// encode and enqueue; one writer thread drains the queue in batches and fsyncs each batch
+// once (group commit). Record layout: int payload length, payload, int CRC32. Every payload
+// is lsn, op, varint a, varint b, varint c, status, version, optional assignee, text:
+// sprint created (a = sprint, b = days, text = name), task added (a = task, b = sprint,
+// c = hours, text = description), task changed (a = task) and task removed (a = task).
+// A torn tail record fails its CRC and ends replay.
+class PlannerJournal implements AutoCloseable {
+    static final byte SPRINT_CREATED = 1;
+    static final byte TASK_ADDED = 2;
+    static final byte TASK_CHANGED = 3;
+    static final byte TASK_REMOVED = 4;
+    private static final int MAX_BATCH_RECORDS = 8192;
+    private static final long BATCH_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static class Record {
+        final long lsn;
+        final byte op;
+        final int a;
+        final int b;
+        final int c;
+        final TaskStatus status;
+        final long version;
+        final byte[] assignee;
+        final byte[] text;
+        // only set for sync barriers, which carry no payload
+        final CountDownLatch synced;
+
+        Record(long lsn, byte op, int a, int b, int c, TaskStatus status, long version, String assignee, String text, CountDownLatch synced) {
+            this.lsn = lsn;
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.status = status;
+            this.version = version;
+            // encoded by the caller, so the writer thread only copies bytes
+            this.assignee = assignee == null ? null : assignee.getBytes(StandardCharsets.UTF_8);
+            this.text = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+            this.synced = synced;
+        }
+
+        int maxEncodedSize() {
+            return 4 + 8 + 1 + 3 * 5 + 1 + 8 + 5 + (assignee == null ? 0 : assignee.length) + 5
+                    + (text == null ? 0 : text.length) + 4;
+        }
+    }
+
+    private final Path directory;
+    private final AtomicLong nextLsn;
+    private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    // closed segments and the highest LSN each holds; guarded by this
+    private final Map<Path, Long> closedSegments = new LinkedHashMap<>();
+    private volatile boolean rotateRequested;
+    private FileChannel channel;
+    private Path currentSegment;
+    private long currentSegmentMaxLsn = -1;
+    private long segmentNumber;
+
+    public PlannerJournal(Path directory, long nextLsn, long nextSegmentNumber) throws IOException {
+        this.directory = directory;
+        this.nextLsn = new AtomicLong(nextLsn);
+        this.segmentNumber = nextSegmentNumber;
+        Files.createDirectories(directory);
+        openSegment();
+        this.writer = new Thread(this::runWriter, "planner-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long logSprintCreated(int sprintId, String sprintName, int durationInDays) {
+        return append(SPRINT_CREATED, sprintId, durationInDays, 0, TaskStatus.TODO, 0, null, sprintName);
+    }
+
+    public long logTaskAdded(int sprintId, Task task, TaskState state) {
+        return append(TASK_ADDED, task.getTaskId(), sprintId, task.getEstimatedHours(), state.getStatus(), state.getVersion(),
+                state.getAssignedTo(), task.getDescription());
+    }
+
+    public long logTaskChanged(int taskId, TaskState state) {
+        return append(TASK_CHANGED, taskId, 0, 0, state.getStatus(), state.getVersion(), state.getAssignedTo(), null);
+    }
+
+    public long logTaskRemoved(int taskId) {
+        return append(TASK_REMOVED, taskId, 0, 0, TaskStatus.TODO, 0, null, null);
+    }
+
+    // Planner listeners log a change after it is applied in memory, so throwing here leaves the
+    // planner consistent and tells the caller that the change is not durable
+    private long append(byte op, int a, int b, int c, TaskStatus status, long version, String assignee, String text) {
+        IOException stopped = failure;
+        if (stopped != null) {
+            throw new UncheckedIOException("Planner journal stopped after a failed write", stopped);
+        }
+        long lsn = nextLsn.getAndIncrement();
+        queue.offer(new Record(lsn, op, a, b, c, status, version, assignee, text, null));
+        return lsn;
+    }
+
+    // Blocks until everything logged before this call is on disk
+    public void sync() throws IOException {
+        CountDownLatch synced = new CountDownLatch(1);
+        queue.offer(new Record(-1, (byte) 0, 0, 0, 0, null, 0, null, null, synced));
+        try {
+            synced.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the journal", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public long nextLsn() {
+        return nextLsn.get();
+    }
+
+    // Starts a new segment at the writer's next batch boundary and waits for it
+    public void rotate() throws IOException {
+        rotateRequested = true;
+        sync();
+    }
+
+    // Deletes closed segments whose records are all older than lsn (i.e. covered by a snapshot)
+    public synchronized void deleteSegmentsBefore(long lsn) throws IOException {
+        Iterator<Map.Entry<Path, Long>> it = closedSegments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> segment = it.next();
+            if (segment.getValue() < lsn) {
+                Files.deleteIfExists(segment.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    // Segments written before this journal was opened, as found by recovery
+    synchronized void registerClosedSegment(Path segment, long maxLsn) {
+        closedSegments.put(segment, maxLsn);
+    }
+
+    private void runWriter() {
+        while (running || !queue.isEmpty()) {
+            Record record = queue.poll();
+            if (record == null) {
+                LockSupport.parkNanos(BATCH_WINDOW_NANOS);
+                continue;
+            }
+            // a failed batch may have left a torn record, which ends replay, so nothing after it
+            // is written; barriers are still released and report the failure
+            if (failure != null) {
+                if (record.synced != null) {
+                    record.synced.countDown();
+                }
+                continue;
+            }
+            List<CountDownLatch> barriers = new ArrayList<>();
+            int records = 0;
+            try {
+                buffer.clear();
+                do {
+                    if (record.synced != null) {
+                        barriers.add(record.synced);
+                    } else {
+                        write(record);
+                    }
+                } while (++records < MAX_BATCH_RECORDS && (record = queue.poll()) != null);
+                flush(buffer);
+                channel.force(false);
+                if (rotateRequested) {
+                    rotateRequested = false;
+                    openSegment();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            for (CountDownLatch barrier : barriers) {
+                barrier.countDown();
+            }
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int size = record.maxEncodedSize();
+        if (buffer.remaining() < size) {
+            flush(buffer);
+        }
+        if (size <= buffer.capacity()) {
+            encode(record, buffer);
+            return;
+        }
+        // a record larger than the batch buffer goes out on its own
+        ByteBuffer large = ByteBuffer.allocate(size);
+        encode(record, large);
+        flush(large);
+    }
+
+    private void flush(ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private void encode(Record record, ByteBuffer out) {
+        int start = out.position();
+        out.putInt(0);
+        out.putLong(record.lsn);
+        out.put(record.op);
+        putVarint(out, record.a);
+        putVarint(out, record.b);
+        putVarint(out, record.c);
+        out.put((byte) record.status.ordinal());
+        out.putLong(record.version);
+        putBytes(out, record.assignee);
+        putBytes(out, record.text);
+        int payloadLength = out.position() - start - 4;
+        out.putInt(start, payloadLength);
+        crc.reset();
+        ByteBuffer payload = out.duplicate();
+        payload.position(start + 4).limit(start + 4 + payloadLength);
+        crc.update(payload);
+        out.putInt((int) crc.getValue());
+        currentSegmentMaxLsn = Math.max(currentSegmentMaxLsn, record.lsn);
+    }
+
+    private synchronized void openSegment() throws IOException {
+        if (channel != null) {
+            channel.close();
+            closedSegments.put(currentSegment, currentSegmentMaxLsn);
+        }
+        currentSegment = directory.resolve(String.format("journal-%012d.log", segmentNumber++));
+        currentSegmentMaxLsn = -1;
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    // Length + 1 as a varint (0 for null), then the bytes
+    static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
+
+// Durable state for one SprintPlanner: restores it from the latest snapshot, which is
+// memory-mapped and loaded in one pass, plus the journal tail, then logs every change and
+// takes periodic snapshots that let old segments go. Snapshots are fuzzy: they start at
+// a journal LSN and are taken while the planner keeps changing; replaying every record
+// from that LSN on converges to the exact state because each record carries a task's
+// full new state rather than a delta.
+class PlannerPersistence implements AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x53504C4E;
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    private final SprintPlanner planner;
+    private final Path directory;
+    private final PlannerJournal journal;
+    private final ScheduledExecutorService snapshotter;
+    private final AtomicLong snapshotFailures = new AtomicLong();
+    private volatile IOException lastSnapshotFailure;
+
+    private PlannerPersistence(SprintPlanner planner, Path directory, PlannerJournal journal, long snapshotIntervalMillis) {
+        this.planner = planner;
+        this.directory = directory;
+        this.journal = journal;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "planner-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotIntervalMillis > 0) {
+            snapshotter.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    lastSnapshotFailure = e;
+                    snapshotFailures.incrementAndGet();
+                }
+            }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Restores the (empty) planner from directory and starts logging. Background snapshots
+    // read the planner while it changes, so they need a concurrent planner; otherwise pass
+    // 0 and call snapshot() from the thread that owns the planner.
+    public static PlannerPersistence open(SprintPlanner planner, Path directory, long snapshotIntervalMillis) throws IOException {
+        if (snapshotIntervalMillis > 0 && !planner.isConcurrent()) {
+            throw new IllegalArgumentException("Background snapshots need a concurrent planner");
+        }
+        Files.createDirectories(directory);
+        // a snapshot that was cut short never replaced anything
+        for (Path partial : sortedFiles(directory, "snapshot-*.bin.tmp")) {
+            Files.delete(partial);
+        }
+        Recovery recovery = new Recovery(planner.isConcurrent());
+        long snapshotLsn = loadLatestSnapshot(recovery, directory);
+        long nextLsn = snapshotLsn;
+        long nextSegment = 0;
+        Map<Path, Long> segments = new LinkedHashMap<>();
+        for (Path segment : sortedFiles(directory, "journal-*.log")) {
+            long maxLsn = replaySegment(recovery, segment, snapshotLsn);
+            segments.put(segment, maxLsn);
+            nextLsn = Math.max(nextLsn, maxLsn + 1);
+            nextSegment = Math.max(nextSegment, segmentNumber(segment) + 1);
+        }
+        recovery.install(planner);
+        PlannerJournal journal = new PlannerJournal(directory, nextLsn, nextSegment);
+        segments.forEach(journal::registerClosedSegment);
+        planner.setJournal(journal);
+        return new PlannerPersistence(planner, directory, journal, snapshotIntervalMillis);
+    }
+
+    public PlannerJournal journal() {
+        return journal;
+    }
+
+    // Scheduled snapshots that failed; old segments stay on disk until one succeeds
+    public long snapshotFailures() {
+        return snapshotFailures.get();
+    }
+
+    public IOException lastSnapshotFailure() {
+        return lastSnapshotFailure;
+    }
+
+    // Writes a snapshot, then drops the journal segments and older snapshots it makes redundant.
+    // Layout: magic, start LSN, next task ID, then per sprint a 1 byte, varint ID, varint days,
+    // name and its tasks, ended by a 0 byte. Each task is varint ID + 1, varint hours, status,
+    // version, assignee and description, and a sprint's tasks end with varint 0. Assignees are
+    // written once and referenced afterwards: 0 = none, 1 = new name follows, n = name n - 2.
+    public synchronized void snapshot() throws IOException {
+        long startLsn = journal.nextLsn();
+        journal.rotate();
+        Path target = directory.resolve(String.format("snapshot-%019d.bin", startLsn));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(startLsn).putInt(planner.peekNextTaskId());
+            Map<String, Integer> assignees = new HashMap<>();
+            for (Sprint sprint : planner.sprints.values()) {
+                ensure(channel, buffer, 16);
+                buffer.put((byte) 1);
+                PlannerJournal.putVarint(buffer, sprint.getSprintId());
+                PlannerJournal.putVarint(buffer, sprint.getDurationInDays());
+                putString(channel, buffer, sprint.getSprintName());
+                for (Task task : sprint.getTasks()) {
+                    TaskState state = task.getState();
+                    ensure(channel, buffer, 32);
+                    PlannerJournal.putVarint(buffer, task.getTaskId() + 1);
+                    PlannerJournal.putVarint(buffer, task.getEstimatedHours());
+                    buffer.put((byte) state.getStatus().ordinal());
+                    buffer.putLong(state.getVersion());
+                    String assignee = state.getAssignedTo();
+                    Integer known = assignee == null ? null : assignees.get(assignee);
+                    if (assignee == null) {
+                        PlannerJournal.putVarint(buffer, 0);
+                    } else if (known != null) {
+                        PlannerJournal.putVarint(buffer, known + 2);
+                    } else {
+                        PlannerJournal.putVarint(buffer, 1);
+                        putString(channel, buffer, assignee);
+                        assignees.put(assignee, assignees.size());
+                    }
+                    putString(channel, buffer, task.getDescription());
+                }
+                ensure(channel, buffer, 5);
+                PlannerJournal.putVarint(buffer, 0);
+            }
+            ensure(channel, buffer, 1);
+            buffer.put((byte) 0);
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path old : sortedFiles(directory, "snapshot-*.bin")) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        journal.deleteSegmentsBefore(startLsn);
+    }
+
+    private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+    // Strings may be longer than the buffer, so they are copied in chunks
+    private static void putString(FileChannel channel, ByteBuffer buffer, String value) throws IOException {
+        byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        ensure(channel, buffer, 5);
+        PlannerJournal.putVarint(buffer, bytes == null ? 0 : bytes.length + 1);
+        for (int offset = 0; bytes != null && offset < bytes.length; ) {
+            if (!buffer.hasRemaining()) {
+                drain(channel, buffer);
+            }
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Returns the LSN replay has to start from (0 without a snapshot)
+    private static long loadLatestSnapshot(Recovery recovery, Path directory) throws IOException {
+        List<Path> snapshots = sortedFiles(directory, "snapshot-*.bin");
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path latest = snapshots.get(snapshots.size() - 1);
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a planner snapshot: " + latest);
+            }
+            long lsn = buffer.getLong();
+            recovery.raiseNextTaskId(buffer.getInt());
+            List<String> assignees = new ArrayList<>();
+            while (buffer.get() != 0) {
+                int sprintId = PlannerJournal.getVarint(buffer);
+                int durationInDays = PlannerJournal.getVarint(buffer);
+                recovery.addSprint(sprintId, PlannerJournal.getString(buffer), durationInDays);
+                int entry;
+                while ((entry = PlannerJournal.getVarint(buffer)) != 0) {
+                    int estimatedHours = PlannerJournal.getVarint(buffer);
+                    TaskStatus status = STATUSES[buffer.get()];
+                    long version = buffer.getLong();
+                    int assigneeCode = PlannerJournal.getVarint(buffer);
+                    String assignee = null;
+                    if (assigneeCode == 1) {
+                        assignee = PlannerJournal.getString(buffer);
+                        assignees.add(assignee);
+                    } else if (assigneeCode > 1) {
+                        assignee = assignees.get(assigneeCode - 2);
+                    }
+                    String description = PlannerJournal.getString(buffer);
+                    TaskState state = status == TaskStatus.TODO && assignee == null && version == 0
+                            ? TaskState.INITIAL : new TaskState(status, assignee, version);
+                    recovery.addTask(sprintId, new Task(entry - 1, description, estimatedHours, state));
+                }
+            }
+            return lsn;
+        }
+    }
+
+    // Applies the segment's records from fromLsn on; returns the highest LSN it contains
+    private static long replaySegment(Recovery recovery, Path segment, long fromLsn) throws IOException {
+        long maxLsn = -1;
+        CRC32 crc = new CRC32();
+        // every change record repeats its assignee; share one copy per name
+        Map<String, String> assignees = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0 || buffer.remaining() < length + 4) {
+                    break;
+                }
+                // records the snapshot already holds are stepped over undecoded; every later
+                // record is still checked, so a torn tail ends the replay as before
+                long lsn = buffer.getLong(buffer.position());
+                if (lsn < fromLsn) {
+                    maxLsn = Math.max(maxLsn, lsn);
+                    buffer.position(buffer.position() + length + 4);
+                    continue;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+
+                payload.getLong();
+                byte op = payload.get();
+                maxLsn = Math.max(maxLsn, lsn);
+                int a = PlannerJournal.getVarint(payload);
+                int b = PlannerJournal.getVarint(payload);
+                int c = PlannerJournal.getVarint(payload);
+                TaskStatus status = STATUSES[payload.get()];
+                long version = payload.getLong();
+                String assignee = PlannerJournal.getString(payload);
+                if (assignee != null) {
+                    assignee = assignees.computeIfAbsent(assignee, name -> name);
+                }
+                String text = PlannerJournal.getString(payload);
+                if (op == PlannerJournal.SPRINT_CREATED) {
+                    recovery.addSprint(a, text, b);
+                } else if (op == PlannerJournal.TASK_ADDED) {
+                    recovery.addTask(b, new Task(a, text, c, new TaskState(status, assignee, version)));
+                } else if (op == PlannerJournal.TASK_CHANGED) {
+                    recovery.changeTask(a, new TaskState(status, assignee, version));
+                } else if (op == PlannerJournal.TASK_REMOVED) {
+                    recovery.removeTask(a);
+                }
+            }
+        }
+        return maxLsn;
+    }
+
+    // Planner state rebuilt from the snapshot and the journal before any of it is installed.
+    // Records apply a task's final state, so replaying the journal over a fuzzy snapshot
+    // converges. No task is in a sprint yet, so a record is an array update that notifies
+    // nobody; install() then hands everything to the planner in bulk.
+    private static final class Recovery {
+        private final boolean concurrent;
+        private final Map<Integer, Sprint> sprints = new LinkedHashMap<>();
+        private final Map<Sprint, List<Task>> tasks = new LinkedHashMap<>();
+        // current copy of each task by ID; a task moved while the snapshot was written can
+        // appear twice, and as with a journaled move the later copy wins
+        private Task[] tasksById = new Task[16];
+        private final Set<Task> superseded = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int nextTaskId = 1;
+
+        Recovery(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        void raiseNextTaskId(int atLeast) {
+            nextTaskId = Math.max(nextTaskId, atLeast);
+            if (tasksById.length < atLeast) {
+                tasksById = Arrays.copyOf(tasksById, atLeast);
+            }
+        }
+
+        void addSprint(int sprintId, String sprintName, int durationInDays) {
+            if (!sprints.containsKey(sprintId)) {
+                Sprint sprint = new Sprint(sprintId, sprintName, durationInDays, concurrent);
+                sprints.put(sprintId, sprint);
+                tasks.put(sprint, new ArrayList<>());
+            }
+        }
+
+        void addTask(int sprintId, Task task) {
+            Sprint sprint = sprints.get(sprintId);
+            if (sprint == null) {
+                throw new IllegalStateException("Task " + task.getTaskId() + " belongs to unknown sprint " + sprintId);
+            }
+            int taskId = task.getTaskId();
+            if (taskId >= tasksById.length) {
+                tasksById = Arrays.copyOf(tasksById, Math.max(taskId + 1, tasksById.length * 2));
+            }
+            removeTask(taskId);
+            tasksById[taskId] = task;
+            tasks.get(sprint).add(task);
+            nextTaskId = Math.max(nextTaskId, taskId + 1);
+        }
+
+        void changeTask(int taskId, TaskState state) {
+            Task task = taskId < tasksById.length ? tasksById[taskId] : null;
+            if (task != null) {
+                task.restoreState(state);
+            }
+        }
+
+        void removeTask(int taskId) {
+            Task task = taskId < tasksById.length ? tasksById[taskId] : null;
+            if (task != null) {
+                superseded.add(task);
+                tasksById[taskId] = null;
+            }
+        }
+
+        void install(SprintPlanner planner) {
+            if (!superseded.isEmpty()) {
+                for (List<Task> sprintTasks : tasks.values()) {
+                    sprintTasks.removeIf(superseded::contains);
+                }
+            }
+            planner.restore(tasks, nextTaskId);
+        }
+    }
+
+    private static List<Path> sortedFiles(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        // lets a running snapshot finish instead of interrupting its file writes
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        planner.setJournal(null);
+        journal.close();
     }
 }
 
@@ -209,6 +1903,36 @@ public class SprintPlannerSystem {
         planner.viewSprintDetails(1);
 
         System.out.println("Remaining effort: " + planner.sprints.get(1).calculateRemainingEffort() + " hours");
+
+        planner.createSprint(2, "Sprint 2", 14);
+        planner.moveTask(2, 2);
+        planner.assignTask(2, 2, "Alice");
+        planner.updateTaskStatus(2, 2, TaskStatus.IN_PROGRESS);
+
+        for (Task task : planner.getTasks("Alice", TaskStatus.IN_PROGRESS)) {
+            System.out.println("Alice is working on: " + task.display());
+        }
+
+        // two editors read the same version; the second write is rejected instead of lost
+        long version = planner.sprints.get(1).getTask(1).getVersion();
+        planner.updateTask(1, 1, version, TaskStatus.DONE, "Alice");
+        planner.updateTask(1, 1, version, TaskStatus.TODO, "Bob");
+
+        planner.createSprint(3, "Sprint 3", 5);
+        planner.addTaskToSprint(3, "Write API docs", 6);
+        planner.addTaskToSprint(3, "Fix login timeout", 12);
+        planner.addTaskToSprint(3, "Add audit log", 16);
+        planner.addTaskToSprint(3, "Migrate reports", 20);
+        SprintAutoPlanner autoPlanner = planner.autoAssign(3, Map.of("Alice", 4, "Bob", 6));
+        planner.viewSprintDetails(3);
+        // descoping a task frees Bob's hours, and the waiting task moves into them
+        planner.removeTask(3, 6);
+        planner.viewSprintDetails(3);
+        System.out.println("Alice has " + autoPlanner.getRemainingHours("Alice") + " hours left, Bob "
+                + autoPlanner.getRemainingHours("Bob") + ", waiting: " + autoPlanner.getWaitingTasks().size() + " tasks");
+        Sprint sprint = planner.sprints.get(1);
+        System.out.printf("Sprint 1: %d hours remaining, %.0f%% complete, Alice has %d hours left%n",
+                sprint.calculateRemainingEffort(), sprint.getPercentComplete(), sprint.getRemainingEffort("Alice"));
     }
 }
 
@@ -0,0 +1,154 @@
+package parkinglot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// ParkingLot.parkVehicle + unparkVehicle per op on a lot pre-filled to 90% occupancy. Each
+// thread is a gate with its own arrivals; the lot is per thread for the single-gate run and
+// shared by every gate in the others.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParkingLotBenchmark {
+    private static final int LEVELS = 4;
+    private static final double OCCUPANCY = 0.9;
+
+    @State(Scope.Thread)
+    public static class PrivateLot {
+        @Param({"100", "1000", "10000"})
+        public int spotsPerLevel;
+
+        ParkingLot lot;
+
+        @Setup
+        public void setUp() {
+            lot = newLot(spotsPerLevel, false);
+        }
+    }
+
+    // A single-threaded lot shared by gates has to serialize them on the lot's monitor
+    @State(Scope.Benchmark)
+    public static class SharedLot {
+        @Param({"100", "1000", "10000"})
+        public int spotsPerLevel;
+
+        ParkingLot lot;
+
+        @Setup
+        public void setUp() {
+            lot = newLot(spotsPerLevel, false);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConcurrentLot {
+        @Param({"100", "1000", "10000"})
+        public int spotsPerLevel;
+
+        ParkingLot lot;
+
+        @Setup
+        public void setUp() {
+            lot = newLot(spotsPerLevel, true);
+        }
+    }
+
+    // Concurrent lot whose levels have three entrances; gates park nearest to one of them
+    @State(Scope.Benchmark)
+    public static class NearestLot {
+        @Param({"100", "1000", "10000"})
+        public int spotsPerLevel;
+
+        ParkingLot lot;
+
+        @Setup
+        public void setUp() {
+            lot = newLot(spotsPerLevel, true);
+            for(Level level: lot.levels) {
+                level.placeEntrances(1, spotsPerLevel / 2, spotsPerLevel);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Gate {
+        private final Vehicle[] arrivals = new Vehicle[1024];
+        private int next;
+        int index;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            index = threads.getThreadIndex();
+            for(int i = 0; i < arrivals.length; i++) {
+                arrivals[i] = new Car("G" + index + "-" + i);
+            }
+        }
+
+        Vehicle nextArrival() {
+            next = (next + 1) & (arrivals.length - 1);
+            return arrivals[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void parkAndLeave(PrivateLot lot, Gate gate, Blackhole blackhole) {
+        parkAndLeave(lot.lot, gate.nextArrival(), -1, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void parkAndLeaveContended(SharedLot lot, Gate gate, Blackhole blackhole) {
+        Vehicle vehicle = gate.nextArrival();
+        synchronized(lot.lot) {
+            parkAndLeave(lot.lot, vehicle, -1, blackhole);
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void parkAndLeaveConcurrent(ConcurrentLot lot, Gate gate, Blackhole blackhole) {
+        parkAndLeave(lot.lot, gate.nextArrival(), -1, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void parkAndLeaveNearestToGate(NearestLot lot, Gate gate, Blackhole blackhole) {
+        parkAndLeave(lot.lot, gate.nextArrival(), gate.index % 3, blackhole);
+    }
+
+    private static void parkAndLeave(ParkingLot lot, Vehicle vehicle, int entrance, Blackhole blackhole) {
+        if(lot.parkVehicle(vehicle, entrance)) {
+            blackhole.consume(lot.unparkVehicle(vehicle));
+        }
+    }
+
+    private static ParkingLot newLot(int spotsPerLevel, boolean concurrent) {
+        ParkingLot lot = new ParkingLot(concurrent, null);
+        for(int floor = 1; floor <= LEVELS; floor++) {
+            lot.addLevel(new Level(floor, spotsPerLevel, concurrent));
+        }
+        VehicleType[] types = VehicleType.values();
+        int prefill = (int) (spotsPerLevel * LEVELS * OCCUPANCY);
+        for(int i = 0; i < prefill; i++) {
+            lot.parkVehicle(new Vehicle("PRE" + i, types[i % types.length]));
+        }
+        return lot;
+    }
+}
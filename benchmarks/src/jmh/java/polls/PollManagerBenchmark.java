@@ -0,0 +1,95 @@
+package polls;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// PollManager.voteInPoll per op, each vote from a new user; a voter replaces its poll with a
+// new one once it has received the given number of votes. The manager is per thread for the
+// single-voter run and shared by every thread in the contended one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollManagerBenchmark {
+    private static final List<String> OPTIONS = Arrays.asList("Red", "Blue", "Green", "Yellow");
+
+
+    @State(Scope.Thread)
+    public static class PrivateManager {
+        PollManager pollManager = new PollManager();
+    }
+
+
+    // PollManager is not thread-safe, so voters sharing it serialize on its monitor
+    @State(Scope.Benchmark)
+    public static class SharedManager {
+        PollManager pollManager = new PollManager();
+    }
+
+
+    @State(Scope.Thread)
+    public static class Voter {
+        @Param({"1000", "100000", "1000000"})
+        public int votesPerPoll;
+
+        private String[] users;
+        private String pollId;
+        private int next;
+
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            users = new String[votesPerPoll];
+            for (int i = 0; i < votesPerPoll; i++) {
+                users[i] = "user-" + threads.getThreadIndex() + "-" + i;
+            }
+        }
+
+
+        String vote(PollManager pollManager) {
+            // the finished poll is deleted so a long run does not keep every vote it cast
+            if (next == 0) {
+                if (pollId != null) {
+                    pollManager.deletePoll(pollId);
+                }
+                pollId = pollManager.createPoll("Benchmark?", OPTIONS);
+            }
+            int user = next;
+            next = next + 1 == votesPerPoll ? 0 : next + 1;
+            return pollManager.voteInPoll(pollId, users[user], OPTIONS.get(user & 3));
+        }
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public void voteInPoll(PrivateManager manager, Voter voter, Blackhole blackhole) {
+        blackhole.consume(voter.vote(manager.pollManager));
+    }
+
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void voteInPollContended(SharedManager manager, Voter voter, Blackhole blackhole) {
+        synchronized (manager.pollManager) {
+            blackhole.consume(voter.vote(manager.pollManager));
+        }
+    }
+}
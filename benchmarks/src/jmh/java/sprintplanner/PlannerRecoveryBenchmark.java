@@ -0,0 +1,124 @@
+package sprintplanner;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Restart time for a persisted planner: the setup builds a large planner, snapshots it and
+// keeps editing so recovery also replays a journal tail. Every iteration then restores a
+// fresh planner from disk and checks that every task came back. The first warmup iteration
+// of each fork is the cold restart.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlannerRecoveryBenchmark {
+    private static final int SPRINTS = 500;
+    private static final int DEVELOPERS = 300;
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    @Param({"300000"})
+    public int tasks;
+
+    @Param({"false", "true"})
+    public boolean concurrent;
+
+    private Path directory;
+    private long expected;
+    private SprintPlanner restored;
+
+    @Setup(Level.Trial)
+    public void persist() throws IOException {
+        directory = Files.createTempDirectory("planner-recovery");
+        expected = write();
+        // like a real restart, the restored planner does not share the heap with the old one
+        System.gc();
+    }
+
+    // Persists the planner and returns its fingerprint
+    private long write() throws IOException {
+        Random random = new Random(42);
+        SprintPlanner planner = new SprintPlanner(concurrent, null);
+        try (PlannerPersistence persistence = PlannerPersistence.open(planner, directory, 0)) {
+            for (int s = 1; s <= SPRINTS; s++) {
+                planner.createSprint(s, "Sprint " + s, 14);
+            }
+            for (int t = 0; t < tasks; t++) {
+                planner.addTaskToSprint(1 + random.nextInt(SPRINTS), "Task " + t, 1 + random.nextInt(16));
+            }
+            persistence.snapshot();
+            for (int i = 0; i < tasks / 5; i++) {
+                int taskId = 1 + random.nextInt(tasks);
+                Sprint sprint = planner.getIndex().getSprintOf(taskId);
+                if (sprint == null) {
+                    continue;
+                }
+                switch (random.nextInt(10)) {
+                    case 0 -> planner.moveTask(taskId, 1 + random.nextInt(SPRINTS));
+                    case 1 -> planner.removeTask(sprint.getSprintId(), taskId);
+                    case 2, 3, 4, 5 -> planner.assignTask(sprint.getSprintId(), taskId, "Dev " + random.nextInt(DEVELOPERS));
+                    default -> planner.updateTaskStatus(sprint.getSprintId(), taskId, STATUSES[random.nextInt(STATUSES.length)]);
+                }
+            }
+            persistence.journal().sync();
+            return fingerprint(planner);
+        }
+    }
+
+    @Benchmark
+    public SprintPlanner restore() throws IOException {
+        SprintPlanner planner = new SprintPlanner(concurrent, null);
+        PlannerPersistence.open(planner, directory, 0).close();
+        restored = planner;
+        return planner;
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() {
+        if (fingerprint(restored) != expected) {
+            throw new IllegalStateException("Restored planner differs from the one that was persisted");
+        }
+        restored = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // Order-independent hash of every sprint, every task with its sprint, and the running totals
+    private static long fingerprint(SprintPlanner planner) {
+        long hash = planner.getIndex().size();
+        for (Sprint sprint : planner.sprints.values()) {
+            hash += 31L * (sprint.getSprintName().hashCode() + sprint.getDurationInDays()) + sprint.calculateRemainingEffort();
+            for (Task task : sprint.getTasks()) {
+                hash += task.display().hashCode() + task.getSprint().getSprintId() * 1_000_003L;
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,147 @@
+package sprintplanner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Auto-assignment on a large backlog: a full plan(), and single-task changes that the auto
+// planner, observing the sprint, repairs on its own. The plan each iteration leaves behind
+// is checked against the sprint.
+@Fork(1)
+public class SprintAutoPlannerBenchmark {
+    private static final int DAYS = 300;
+
+    // A freshly built backlog; the states below rebuild it for every iteration
+    static final class Backlog {
+        final Random random = new Random(7);
+        final Map<String, Integer> hoursPerDay = new HashMap<>();
+        final SprintPlanner planner = new SprintPlanner(false, null);
+        final Sprint sprint;
+        final int tasks;
+        SprintAutoPlanner autoPlanner;
+
+        Backlog(int tasks, int developers) {
+            this.tasks = tasks;
+            planner.createSprint(1, "Backlog", DAYS);
+            for (int t = 0; t < tasks; t++) {
+                planner.addTaskToSprint(1, "Task " + t, 1 + random.nextInt(16));
+            }
+            for (int d = 0; d < developers; d++) {
+                hoursPerDay.put("Dev " + d, 4 + random.nextInt(5));
+            }
+            sprint = planner.sprints.get(1);
+        }
+
+        void plan() {
+            autoPlanner = planner.autoAssign(1, hoursPerDay);
+        }
+
+        // Every developer's load must match the sprint's running totals, and no waiting task may fit anyone
+        void verify() {
+            int mostRemaining = Integer.MIN_VALUE;
+            for (Map.Entry<String, Integer> developer : hoursPerDay.entrySet()) {
+                EffortTotals effort = sprint.getEffort(developer.getKey());
+                int used = effort == null ? 0 : effort.getTotalHours();
+                int remaining = autoPlanner.getRemainingHours(developer.getKey());
+                if (remaining != sprint.getDurationInDays() * developer.getValue() - used) {
+                    throw new IllegalStateException(developer.getKey() + "'s load disagrees with the sprint totals");
+                }
+                mostRemaining = Math.max(mostRemaining, remaining);
+            }
+            for (Task task : autoPlanner.getWaitingTasks()) {
+                if (task.getEstimatedHours() <= mostRemaining || task.getAssignedTo() != null) {
+                    throw new IllegalStateException("Waiting task " + task.getTaskId() + " fits a developer");
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Unplanned {
+        @Param({"100000"})
+        public int tasks;
+
+        @Param({"400"})
+        public int developers;
+
+        Backlog backlog;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            backlog = new Backlog(tasks, developers);
+        }
+
+        @TearDown(Level.Iteration)
+        public void verify() {
+            backlog.verify();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Planned {
+        @Param({"100000"})
+        public int tasks;
+
+        @Param({"400"})
+        public int developers;
+
+        Backlog backlog;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            backlog = new Backlog(tasks, developers);
+            backlog.plan();
+        }
+
+        @TearDown(Level.Iteration)
+        public void verify() {
+            backlog.verify();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public void plan(Unplanned unplanned) {
+        unplanned.backlog.plan();
+    }
+
+    // One random change to the backlog, including the auto planner's repair of the plan
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public void replan(Planned planned) {
+        Backlog backlog = planned.backlog;
+        SprintPlanner planner = backlog.planner;
+        Random random = backlog.random;
+        int taskId = 1 + random.nextInt(backlog.tasks);
+        if (backlog.sprint.getTask(taskId) == null) {
+            planner.addTaskToSprint(1, "Extra " + planner.peekNextTaskId(), 1 + random.nextInt(16));
+            return;
+        }
+        switch (random.nextInt(3)) {
+            case 0 -> planner.removeTask(1, taskId);
+            case 1 -> planner.assignTask(1, taskId, null);
+            default -> planner.updateTaskStatus(1, taskId, TaskStatus.DONE);
+        }
+    }
+}
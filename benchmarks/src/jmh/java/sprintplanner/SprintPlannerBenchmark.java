@@ -0,0 +1,118 @@
+package sprintplanner;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// SprintPlanner.updateTaskStatus per op on a single sprint of the given size. The planner is
+// per thread for the single-writer run and shared by every thread in the others.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SprintPlannerBenchmark {
+    private static final TaskStatus[] STATUSES = TaskStatus.values();
+
+    @State(Scope.Thread)
+    public static class PrivatePlanner {
+        @Param({"100", "1000", "10000"})
+        public int tasksPerSprint;
+
+        SprintPlanner planner;
+
+        @Setup
+        public void setUp() {
+            planner = newPlanner(tasksPerSprint, false);
+        }
+    }
+
+    // The default planner is not thread-safe, so writers sharing it serialize on its monitor
+    @State(Scope.Benchmark)
+    public static class SharedPlanner {
+        @Param({"100", "1000", "10000"})
+        public int tasksPerSprint;
+
+        SprintPlanner planner;
+
+        @Setup
+        public void setUp() {
+            planner = newPlanner(tasksPerSprint, false);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConcurrentPlanner {
+        @Param({"100", "1000", "10000"})
+        public int tasksPerSprint;
+
+        SprintPlanner planner;
+
+        @Setup
+        public void setUp() {
+            planner = newPlanner(tasksPerSprint, true);
+        }
+    }
+
+    // A fixed random sequence of task IDs per thread
+    @State(Scope.Thread)
+    public static class Writer {
+        @Param({"100", "1000", "10000"})
+        public int tasksPerSprint;
+
+        private int[] taskIds;
+        private int next;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            taskIds = new Random(threads.getThreadIndex()).ints(4096, 1, tasksPerSprint + 1).toArray();
+        }
+
+        void updateStatus(SprintPlanner planner) {
+            next++;
+            planner.updateTaskStatus(1, taskIds[next & 4095], STATUSES[next % STATUSES.length]);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void updateTaskStatus(PrivatePlanner planner, Writer writer) {
+        writer.updateStatus(planner.planner);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void updateTaskStatusContended(SharedPlanner planner, Writer writer) {
+        synchronized (planner.planner) {
+            writer.updateStatus(planner.planner);
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void updateTaskStatusConcurrent(ConcurrentPlanner planner, Writer writer) {
+        writer.updateStatus(planner.planner);
+    }
+
+    private static SprintPlanner newPlanner(int tasks, boolean concurrent) {
+        SprintPlanner planner = new SprintPlanner(concurrent, null);
+        planner.createSprint(1, "Benchmark", 14);
+        for (int i = 0; i < tasks; i++) {
+            planner.addTaskToSprint(1, "Task " + i, 1 + i % 16);
+        }
+        return planner;
+    }
+}
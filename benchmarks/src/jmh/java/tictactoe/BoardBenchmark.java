@@ -0,0 +1,84 @@
+package tictactoe;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// Board.addPiece + isWinner + isFull per op, i.e. the per-move work of a game loop. A board is
+// not thread-safe, so every thread plays on its own board; the multi-threaded run shows how
+// moves scale across cores, not how threads contend for one board.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @State(Scope.Thread)
+    public static class Game {
+        @Param({"3", "15", "101"})
+        public int size;
+
+        @Param({"Board", "BitBoard"})
+        public String board;
+
+        private int[] order;
+        private final PlayingPiece[] pieces = {new PlayingPiece(PieceType.X), new PlayingPiece(PieceType.O)};
+        private Board current;
+        private int move;
+
+        // Plays a fixed random cell order per thread
+        @Setup
+        public void setUp(ThreadParams threads) {
+            int cells = size * size;
+            order = new int[cells];
+            for(int i = 0; i < cells; i++) order[i] = i;
+            Random random = new Random(threads.getThreadIndex());
+            for(int i = cells - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            move = 0;
+        }
+
+        // A fresh board is started whenever the previous one fills up
+        void play(Blackhole blackhole) {
+            if(move == 0) current = board.equals("BitBoard") ? new BitBoard(size) : new Board(size);
+            int cell = order[move];
+            PlayingPiece piece = pieces[move & 1];
+            move = move + 1 == order.length ? 0 : move + 1;
+            blackhole.consume(current.addPiece(cell / size, cell % size, piece));
+            if(current.isWinner(cell / size, cell % size, piece.pieceType) || current.isFull()) {
+                blackhole.consume(current.getZobristHash());
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void move(Game game, Blackhole blackhole) {
+        game.play(blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void movePerThreadBoards(Game game, Blackhole blackhole) {
+        game.play(blackhole);
+    }
+}
@@ -0,0 +1,137 @@
+package parkinglot;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// Stress check for the concurrent lot: many gates park and unpark vehicles drawn from one
+// shared plate pool, so gates race both for spots and for the same vehicle. Afterwards
+// every spot, the plate index and the availability counters must agree, and throughput
+// is printed per gate count. Odd gates park nearest to one of the level's two entrances,
+// so both allocation paths run against each other, and the upper half of the levels uses
+// compact spot storage. Vehicles overflow into larger spots while a retyper thread keeps
+// flipping every tenth spot between types.
+// Run with: ./gradlew :benchmarks:stressTest
+public class ParkingLotStressTest {
+    private static final int LEVELS = 4;
+    private static final int SPOTS_PER_LEVEL = 2_000;
+    private static final int OPS_PER_GATE = 500_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxGates = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        for(int gates = 1; gates <= maxGates; gates *= 2) {
+            run(gates);
+        }
+        System.out.println("OK: no spot was ever handed to two vehicles.");
+    }
+
+    private static void run(int gates) throws InterruptedException {
+        ParkingLot lot = new ParkingLot(true, null);
+        for(int floor = 1; floor <= LEVELS; floor++) {
+            Level level = new Level(floor, SPOTS_PER_LEVEL, true, floor > LEVELS / 2);
+            level.markFlexible(IntStream.range(0, SPOTS_PER_LEVEL / 10).map(k -> k * 10).toArray());
+            level.placeEntrances(1, SPOTS_PER_LEVEL);
+            lot.addLevel(level);
+        }
+        lot.setOverflowRules(OverflowRules.smallerIntoLarger());
+        // more plates than spots so the lot fills up and gates also see rejections
+        VehicleType[] types = VehicleType.values();
+        Vehicle[] vehicles = new Vehicle[LEVELS * SPOTS_PER_LEVEL * 2];
+        for(int i = 0; i < vehicles.length; i++) {
+            vehicles[i] = new Vehicle("V" + i, types[i % types.length]);
+        }
+
+        LongAdder parked = new LongAdder();
+        LongAdder unparked = new LongAdder();
+        Thread[] workers = new Thread[gates];
+        CountDownLatch start = new CountDownLatch(1);
+        for(int g = 0; g < gates; g++) {
+            int entrance = g % 2 == 0 ? -1 : (g / 2) % 2;
+            workers[g] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i = 0; i < OPS_PER_GATE; i++) {
+                    Vehicle vehicle = vehicles[random.nextInt(vehicles.length)];
+                    if(lot.findVehicle(vehicle.licensePlate) == null) {
+                        if(lot.parkVehicle(vehicle, entrance)) parked.increment();
+                    } else if(lot.unparkVehicle(vehicle)) {
+                        unparked.increment();
+                    }
+                }
+            });
+            workers[g].start();
+        }
+        LongAdder retyped = new LongAdder();
+        Thread retyper = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while(!Thread.currentThread().isInterrupted()) {
+                Level level = lot.levels.get(random.nextInt(lot.levels.size()));
+                if(level.retypeFlexibleSpot(random.nextInt(level.flexibleSpotCount()), types[random.nextInt(types.length)])) {
+                    retyped.increment();
+                }
+            }
+        });
+        retyper.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker: workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        retyper.interrupt();
+        retyper.join();
+
+        verify(lot, parked.sum() - unparked.sum());
+        System.out.printf("gates=%-3d %12.0f ops/s  parked=%d unparked=%d retyped=%d%n",
+                gates, (double) gates * OPS_PER_GATE * 1e9 / elapsed, parked.sum(), unparked.sum(), retyped.sum());
+    }
+
+    private static void verify(ParkingLot lot, long expectedOccupied) {
+        Set<String> seenPlates = new HashSet<>();
+        int[] freeByType = new int[VehicleType.values().length];
+        int[] spotsByType = new int[VehicleType.values().length];
+        long occupied = 0;
+        for(int l = 0; l < lot.levels.size(); l++) {
+            Level level = lot.levels.get(l);
+            int[] freeOnLevel = new int[VehicleType.values().length];
+            int[] spotsOnLevel = new int[VehicleType.values().length];
+            for(int position = 0; position < level.spotCount(); position++) {
+                spotsOnLevel[level.spotTypeAt(position).ordinal()]++;
+                Vehicle vehicle = level.vehicleAt(position);
+                if(vehicle == null) {
+                    freeOnLevel[level.spotTypeAt(position).ordinal()]++;
+                    continue;
+                }
+                occupied++;
+                check(seenPlates.add(vehicle.licensePlate), vehicle.licensePlate + " occupies two spots");
+                SpotLocation location = lot.findVehicle(vehicle.licensePlate);
+                check(location != null && location.levelIndex == l && location.position == position,
+                        "plate index disagrees with spot " + level.spotNumberAt(position) + " on level " + level.floor);
+            }
+            for(VehicleType type: VehicleType.values()) {
+                check(level.getAvailableSpots(type) == freeOnLevel[type.ordinal()], "level " + level.floor + " free " + type + " count drifted");
+                check(level.getCapacity(type) == spotsOnLevel[type.ordinal()], "level " + level.floor + " " + type + " capacity drifted");
+                freeByType[type.ordinal()] += freeOnLevel[type.ordinal()];
+                spotsByType[type.ordinal()] += spotsOnLevel[type.ordinal()];
+            }
+        }
+        check(occupied == expectedOccupied, "occupied spots " + occupied + " != successful parks - unparks " + expectedOccupied);
+        for(VehicleType type: VehicleType.values()) {
+            check(lot.availability.freeSpots(type) == freeByType[type.ordinal()], "lot-wide free " + type + " count drifted");
+            check(lot.availability.capacity(type) == spotsByType[type.ordinal()], "lot-wide " + type + " capacity drifted");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if(!condition) {
+            throw new IllegalStateException("Parking lot invariant violated: " + message);
+        }
+    }
+}